@@ -0,0 +1,97 @@
+package LZMA;
+
+/*
+ * Match finder keeping the positions of each hash bucket in a binary search
+ * tree ordered by the bytes that follow them. Every insertion re-roots the
+ * tree at the new position, so the closest candidates are visited first and
+ * long matches are found with fewer comparisons than a hash chain needs.
+ */
+class BinaryTreeMatchFinder extends MatchFinder {
+	final int [] tree;
+
+	BinaryTreeMatchFinder(int dictionarySize, int niceLen, int depth) {
+		super(dictionarySize, niceLen, depth);
+		this.tree = new int[cyclicSize << 1];
+	}
+
+	void find() {
+		insert(true);
+	}
+
+	void skip(int count) {
+		while (count-- > 0)
+			insert(false);
+	}
+
+	private void insert(boolean collect) {
+		matchCount = 0;
+		int avail = writePos - readPos;
+		if (avail < kHashBytes) {
+			tree[cyclicPos << 1] = 0;
+			tree[(cyclicPos << 1) + 1] = 0;
+			advance();
+			return;
+		}
+		int lenLimit = Math.min(niceLen, avail);
+
+		int curAbs = bufferOffset + readPos;
+		int h = hash(readPos);
+		int curMatch = head[h];
+		head[h] = curAbs;
+
+		int ptr0 = (cyclicPos << 1) + 1;
+		int ptr1 = cyclicPos << 1;
+		int len0 = 0;
+		int len1 = 0;
+		int maxLen = 1;
+
+		for (int d = depth; ; d--) {
+			int delta = curAbs - curMatch;
+			if (d == 0 || curMatch == 0 || delta > dictionarySize) {
+				tree[ptr0] = 0;
+				tree[ptr1] = 0;
+				break;
+			}
+
+			int pair = linkIndex(delta) << 1;
+			int p = readPos - delta;
+			int len = Math.min(len0, len1);
+
+			if (buf[p + len] == buf[readPos + len]) {
+				while (++len < lenLimit)
+					if (buf[p + len] != buf[readPos + len])
+						break;
+
+				if (collect && len > maxLen) {
+					matchLen[matchCount] = len;
+					matchDist[matchCount] = delta;
+					matchCount++;
+					maxLen = len;
+				}
+				if (len >= lenLimit) {
+					// the candidate equals us as far as we can compare: take over its subtrees
+					tree[ptr1] = tree[pair];
+					tree[ptr0] = tree[pair + 1];
+					break;
+				}
+			}
+
+			if ((buf[p + len] & 0xFF) < (buf[readPos + len] & 0xFF)) {
+				tree[ptr1] = curMatch;
+				ptr1 = pair + 1;
+				curMatch = tree[ptr1];
+				len1 = len;
+			} else {
+				tree[ptr0] = curMatch;
+				ptr0 = pair;
+				curMatch = tree[ptr0];
+				len0 = len;
+			}
+		}
+		advance();
+	}
+
+	void normalizeLinks(int norm) {
+		normalize(tree, norm);
+	}
+}
@@ -21,114 +21,209 @@ class CRangeDecoder {
         byte buffer[];
         int buffer_size;
         int buffer_ind;
+        long buffer_count;
 
         CRangeDecoder( InputStream iStream ) throws IOException {
                 this.buffer = new byte[1<<14];
+                reset(iStream);
+        }
+
+        CRangeDecoder() {
+        }
+
+        void reset( InputStream iStream ) throws IOException {
                 this.inStream = iStream;
+                this.buffer_size = 0;
+                this.buffer_ind = 0;
+                this.buffer_count = 0;
+                start();
+        }
+
+        /*
+         * Reads the five bytes that open a range coded stream.
+         */
+        void start() throws IOException {
                 this.Code = 0;
                 this.Range = -1; // 0xFFFFFFFFL;
                 for(int i = 0; i < 5; i++)
                         this.Code = (this.Code << 8) | (Readbyte());
         }
 
-        int Readbyte() throws IOException {
-                if (buffer_size == buffer_ind) {
-                        buffer_size = inStream.read(buffer);
-                        buffer_ind = 0;
+        /*
+         * Whether the input has been read to its end with the code back at
+         * zero, as it is after the last symbol of an LZMA2 chunk.
+         */
+        boolean isFinished() throws IOException {
+                return Code == 0 && buffer_ind == buffer_size && inStream.read() == -1;
+        }
 
-                        if (buffer_size < 1)
-                                throw new LzmaException ("LZMA : Data Error");
-                }
+        /*
+         * Number of input bytes consumed since the decoder was reset.
+         */
+        long position() {
+                return buffer_count - (buffer_size - buffer_ind);
+        }
+
+        /*
+         * The decoding loops below keep Range and Code in locals and write
+         * them back when they return, so those fields are only touched once
+         * per symbol. The input position stays in buffer_ind: a byte is
+         * shifted in through Readbyte() whenever the range drops below
+         * kTopValue. MappedRangeDecoder overrides Readbyte() to read the
+         * mapped buffer in place, and C2 inlines both versions at each call.
+         * Here only an empty buffer goes through refill(), which is kept out
+         * of line. Reading both kinds of input through ByteBuffer.get(int) at
+         * a local position was measured 1-5% slower.
+         *
+         * Code < bound is an unsigned comparison, done by flipping the sign
+         * bits of both sides. The tree decoders do without the branch: m is -1
+         * when the bit is 1 and 0 otherwise, and picks the new range, code and
+         * probability. Literal bits are hard to predict, so a mispredicted
+         * branch costs more than computing both sides.
+         */
+        int Readbyte() throws IOException {
+                if (buffer_ind == buffer_size)
+                        refill();
                 return buffer[buffer_ind++] & 0xFF;
         }
 
+        /*
+         * Refills the buffer once it has been used up.
+         */
+        void refill() throws IOException {
+                int n = inStream.read(buffer);
+                if (n < 1)
+                        throw new LzmaException ("LZMA : Data Error");
+                buffer_size = n;
+                buffer_ind = 0;
+                buffer_count += n;
+        }
+
         int DecodeDirectBits(int numTotalBits) throws IOException {
+                int range = Range;
+                int code = Code;
                 int result = 0;
                 for (int i = numTotalBits; i > 0; i--) {
-                        Range >>>= 1;
-                        int t = ((Code - Range) >>> 31);
-                        Code -= Range & (t - 1);
+                        range >>>= 1;
+                        int t = ((code - range) >>> 31);
+                        code -= range & (t - 1);
                         result = (result << 1) | (1 - t);
-           
-                        if (Range < kTopValue) // because of "Range >>>= 1",   0 <= Range <= 0x7FFFFFFF
+
+                        if (range < kTopValue) // because of "range >>>= 1",   0 <= range <= 0x7FFFFFFF
                         {
-                                Code = (Code << 8) | Readbyte();
-                                Range <<= 8;
+                                code = (code << 8) | Readbyte();
+                                range <<= 8;
                         }
                 }
+                Range = range;
+                Code = code;
                 return result;
         }
 
-        int BitDecode(int prob[],int index) throws IOException {
-                int newBound = (this.Range >>> kNumBitModelTotalBits) * prob[index];
-                if ((this.Code & 0xFFFFFFFFL) < (newBound & 0xFFFFFFFFL)) // unsigned comparison
-                {
-                        this.Range = newBound;
-                        prob[index] += (kBitModelTotal - prob[index]) >>> kNumMoveBits;
-                        // if ((this.Range & 0xFFFFFFFFL) < Decoder.kTopValue)
-                        if ((this.Range & kTopValueMask) == 0) {
-                                this.Code = (this.Code << 8) | Readbyte();
-                        this.Range <<= 8;
-                        }
-                        return 0;
+        int BitDecode(short prob[],int index) throws IOException {
+                int range = Range;
+                int code = Code;
+                int p = prob[index];
+                int bound = (range >>> kNumBitModelTotalBits) * p;
+                int bit;
+                if ((code ^ 0x80000000) < (bound ^ 0x80000000)) {
+                        range = bound;
+                        prob[index] = (short)(p + ((kBitModelTotal - p) >>> kNumMoveBits));
+                        bit = 0;
                 } else {
-                        this.Range -= newBound;
-                        this.Code -= newBound;
-                        prob[index] -= (prob[index]) >>> kNumMoveBits;
-                        // if ((this.Range & 0xFFFFFFFFL) < Decoder.kTopValue)
-                        if ((this.Range & kTopValueMask) == 0) {
-                                this.Code = (this.Code << 8) | this.Readbyte();
-                                this.Range <<= 8;
-                        }
-                        return 1;
+                        range -= bound;
+                        code -= bound;
+                        prob[index] = (short)(p - (p >>> kNumMoveBits));
+                        bit = 1;
                 }
+                if ((range & kTopValueMask) == 0) {
+                        code = (code << 8) | Readbyte();
+                        range <<= 8;
+                }
+                Range = range;
+                Code = code;
+                return bit;
         }
 
-        int BitTreeDecode(int probs [], int index , int numLevels) throws IOException {
+        int BitTreeDecode(short probs [], int index , int numLevels) throws IOException {
+                int range = Range;
+                int code = Code;
                 int mi = 1;
                 for(int i = numLevels; i > 0; i--) {
-                        mi = (mi + mi) + BitDecode(probs, index + mi);
+                        int p = probs[index + mi];
+                        int bound = (range >>> kNumBitModelTotalBits) * p;
+                        int m = (int)(((code & 0xFFFFFFFFL) - (bound & 0xFFFFFFFFL)) >> 63) ^ -1; // -1 when the bit is 1
+                        range = (bound & ~m) | ((range - bound) & m);
+                        code -= bound & m;
+                        probs[index + mi] = (short)(p + ((((kBitModelTotal - p) >>> kNumMoveBits) & ~m) | ((-(p >>> kNumMoveBits)) & m)));
+                        mi += mi - m;
+                        if ((range & kTopValueMask) == 0) {
+                                code = (code << 8) | Readbyte();
+                                range <<= 8;
+                        }
                 }
+                Range = range;
+                Code = code;
                 return mi - (1 << numLevels);
         }
 
-        int ReverseBitTreeDecode(int probs[] ,int index, int numLevels) throws IOException {
+        int ReverseBitTreeDecode(short probs[] ,int index, int numLevels) throws IOException {
+                int range = Range;
+                int code = Code;
                 int mi = 1;
                 int symbol = 0;
 
                 for(int i = 0; i < numLevels; i++) {
-                        int bit = BitDecode(probs, index + mi);
-                        mi = mi + mi + bit;
-                        symbol |= (bit << i);
+                        int p = probs[index + mi];
+                        int bound = (range >>> kNumBitModelTotalBits) * p;
+                        int m = (int)(((code & 0xFFFFFFFFL) - (bound & 0xFFFFFFFFL)) >> 63) ^ -1; // -1 when the bit is 1
+                        range = (bound & ~m) | ((range - bound) & m);
+                        code -= bound & m;
+                        probs[index + mi] = (short)(p + ((((kBitModelTotal - p) >>> kNumMoveBits) & ~m) | ((-(p >>> kNumMoveBits)) & m)));
+                        mi += mi - m;
+                        symbol |= (1 << i) & m;
+                        if ((range & kTopValueMask) == 0) {
+                                code = (code << 8) | Readbyte();
+                                range <<= 8;
+                        }
                 }
+                Range = range;
+                Code = code;
                 return symbol;
         }
 
-        byte LzmaLiteralDecode(int probs[],int index) throws IOException {
-                int symbol = 1;
-                do {
-                        symbol = (symbol + symbol) | BitDecode(probs, index + symbol);
-                } while (symbol < 0x100);
-
-                return (byte)symbol;
+        byte LzmaLiteralDecode(short probs[],int index) throws IOException {
+                return (byte)BitTreeDecode(probs, index, 8);
         }
 
-        byte LzmaLiteralDecodeMatch(int probs [], int index, byte matchbyte) throws IOException {
+        byte LzmaLiteralDecodeMatch(short probs [], int index, byte matchbyte) throws IOException {
+                int range = Range;
+                int code = Code;
                 int symbol = 1;
+                // offset selects the match-bit models (0x100 or 0x200) while the
+                // decoded bits agree with matchbyte, and the plain ones (0) after
+                int match = matchbyte;
+                int offset = 0x100;
                 do {
-                        int matchBit = (matchbyte >> 7) & 1;
-                        matchbyte <<= 1;
-                        int bit = BitDecode(probs , index + ((1 + matchBit) << 8) + symbol);
-                        symbol = (symbol << 1) | bit;
-
-                        if (matchBit != bit) {
-                                while (symbol < 0x100) {
-                                        symbol = (symbol + symbol) | BitDecode(probs , index + symbol);
-                                }
-                                break;
+                        match <<= 1;
+                        int matchBit = match & offset;
+                        int i = index + offset + matchBit + symbol;
+                        int p = probs[i];
+                        int bound = (range >>> kNumBitModelTotalBits) * p;
+                        int m = (int)(((code & 0xFFFFFFFFL) - (bound & 0xFFFFFFFFL)) >> 63) ^ -1; // -1 when the bit is 1
+                        range = (bound & ~m) | ((range - bound) & m);
+                        code -= bound & m;
+                        probs[i] = (short)(p + ((((kBitModelTotal - p) >>> kNumMoveBits) & ~m) | ((-(p >>> kNumMoveBits)) & m)));
+                        symbol += symbol - m;
+                        offset &= ~(matchBit ^ m);
+                        if ((range & kTopValueMask) == 0) {
+                                code = (code << 8) | Readbyte();
+                                range <<= 8;
                         }
                 } while (symbol < 0x100);
 
+                Range = range;
+                Code = code;
                 return (byte)symbol;
         }
 
@@ -149,16 +244,27 @@ class CRangeDecoder {
         final static int LenHigh = (LenMid + (kNumPosStatesMax << kLenNumMidBits));
         final static int kNumLenProbs = (LenHigh + kLenNumHighSymbols);
 
-        int LzmaLenDecode(int probs[], int index, int posState) throws IOException {
-                if(BitDecode(probs, index + LenChoice) == 0)
-                        return BitTreeDecode(probs, index + LenLow +
-                                             (posState << kLenNumLowBits), kLenNumLowBits);
-
-                if(BitDecode(probs, index + LenChoice2) == 0)
-                        return kLenNumLowSymbols + BitTreeDecode(probs, index + LenMid +
-                                (posState << kLenNumMidBits), kLenNumMidBits);
-
-                return kLenNumLowSymbols + kLenNumMidSymbols +
-                       BitTreeDecode(probs, index + LenHigh, kLenNumHighBits);
+        /*
+         * Picks the low, mid or high tree with the choice bits and decodes it
+         * with a single BitTreeDecode. C2 does not inline this method into
+         * LzmaDecode, which is already too big by then, so it is called.
+         */
+        int LzmaLenDecode(short probs[], int index, int posState) throws IOException {
+                int base;
+                int numBits;
+                if(BitDecode(probs, index + LenChoice) == 0) {
+                        base = 0;
+                        index += LenLow + (posState << kLenNumLowBits);
+                        numBits = kLenNumLowBits;
+                } else if(BitDecode(probs, index + LenChoice2) == 0) {
+                        base = kLenNumLowSymbols;
+                        index += LenMid + (posState << kLenNumMidBits);
+                        numBits = kLenNumMidBits;
+                } else {
+                        base = kLenNumLowSymbols + kLenNumMidSymbols;
+                        index += LenHigh;
+                        numBits = kLenNumHighBits;
+                }
+                return base + BitTreeDecode(probs, index, numBits);
         }
 }
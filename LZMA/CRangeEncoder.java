@@ -0,0 +1,150 @@
+package LZMA;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/*
+ * Range encoder producing the bit stream CRangeDecoder reads: the same
+ * 11-bit adaptive probabilities and 5-bit adaptation shift, with carries
+ * propagated through a cached byte and a run of pending 0xFF bytes.
+ */
+class CRangeEncoder {
+
+	final static int kTopMask = ~((1 << CRangeDecoder.kNumTopBits) - 1);
+
+	OutputStream outStream;
+
+	long Low;
+	int Range;
+	int cache;
+	long cacheSize;
+
+	byte buffer[];
+	int buffer_ind;
+
+	CRangeEncoder(OutputStream oStream) {
+		this.outStream = oStream;
+		this.buffer = new byte[1 << 14];
+		this.Low = 0;
+		this.Range = -1; // 0xFFFFFFFFL;
+		this.cache = 0;
+		this.cacheSize = 1;
+	}
+
+	void Writebyte(int b) throws IOException {
+		if (buffer_ind == buffer.length) {
+			outStream.write(buffer, 0, buffer_ind);
+			buffer_ind = 0;
+		}
+		buffer[buffer_ind++] = (byte)b;
+	}
+
+	void ShiftLow() throws IOException {
+		int lowHi = (int)(Low >>> 32);
+		if (lowHi != 0 || Low < 0xFF000000L) {
+			int temp = cache;
+			do {
+				Writebyte(temp + lowHi);
+				temp = 0xFF;
+			} while (--cacheSize != 0);
+			cache = (int)(Low >>> 24) & 0xFF;
+		}
+		cacheSize++;
+		Low = (Low & 0x00FFFFFF) << 8;
+	}
+
+	void BitEncode(short prob[], int index, int bit) throws IOException {
+		int p = prob[index];
+		int newBound = (Range >>> CRangeDecoder.kNumBitModelTotalBits) * p;
+		if (bit == 0) {
+			Range = newBound;
+			prob[index] = (short)(p + ((CRangeDecoder.kBitModelTotal - p) >>> CRangeDecoder.kNumMoveBits));
+		} else {
+			Low += newBound & 0xFFFFFFFFL;
+			Range -= newBound;
+			prob[index] = (short)(p - (p >>> CRangeDecoder.kNumMoveBits));
+		}
+		if ((Range & kTopMask) == 0) {
+			Range <<= 8;
+			ShiftLow();
+		}
+	}
+
+	void EncodeDirectBits(int value, int numTotalBits) throws IOException {
+		for (int i = numTotalBits - 1; i >= 0; i--) {
+			Range >>>= 1;
+			Low += Range & (0 - ((value >>> i) & 1));
+			if ((Range & kTopMask) == 0) {
+				Range <<= 8;
+				ShiftLow();
+			}
+		}
+	}
+
+	void BitTreeEncode(short probs[], int index, int numLevels, int symbol) throws IOException {
+		int mi = 1;
+		for (int i = numLevels - 1; i >= 0; i--) {
+			int bit = (symbol >>> i) & 1;
+			BitEncode(probs, index + mi, bit);
+			mi = (mi << 1) | bit;
+		}
+	}
+
+	void ReverseBitTreeEncode(short probs[], int index, int numLevels, int symbol) throws IOException {
+		int mi = 1;
+		for (int i = 0; i < numLevels; i++) {
+			int bit = symbol & 1;
+			symbol >>>= 1;
+			BitEncode(probs, index + mi, bit);
+			mi = (mi << 1) | bit;
+		}
+	}
+
+	void LzmaLiteralEncode(short probs[], int index, int symbol) throws IOException {
+		BitTreeEncode(probs, index, 8, symbol);
+	}
+
+	void LzmaLiteralEncodeMatch(short probs[], int index, int symbol, int matchbyte) throws IOException {
+		int mi = 1;
+		boolean same = true;
+		for (int i = 7; i >= 0; i--) {
+			int bit = (symbol >>> i) & 1;
+			if (same) {
+				int matchBit = (matchbyte >>> i) & 1;
+				BitEncode(probs, index + ((1 + matchBit) << 8) + mi, bit);
+				same = (matchBit == bit);
+			} else {
+				BitEncode(probs, index + mi, bit);
+			}
+			mi = (mi << 1) | bit;
+		}
+	}
+
+	void LzmaLenEncode(short probs[], int index, int len, int posState) throws IOException {
+		if (len < CRangeDecoder.kLenNumLowSymbols) {
+			BitEncode(probs, index + CRangeDecoder.LenChoice, 0);
+			BitTreeEncode(probs, index + CRangeDecoder.LenLow +
+			              (posState << CRangeDecoder.kLenNumLowBits), CRangeDecoder.kLenNumLowBits, len);
+			return;
+		}
+		BitEncode(probs, index + CRangeDecoder.LenChoice, 1);
+		len -= CRangeDecoder.kLenNumLowSymbols;
+
+		if (len < CRangeDecoder.kLenNumMidSymbols) {
+			BitEncode(probs, index + CRangeDecoder.LenChoice2, 0);
+			BitTreeEncode(probs, index + CRangeDecoder.LenMid +
+			              (posState << CRangeDecoder.kLenNumMidBits), CRangeDecoder.kLenNumMidBits, len);
+			return;
+		}
+		BitEncode(probs, index + CRangeDecoder.LenChoice2, 1);
+		BitTreeEncode(probs, index + CRangeDecoder.LenHigh, CRangeDecoder.kLenNumHighBits,
+		              len - CRangeDecoder.kLenNumMidSymbols);
+	}
+
+	void flush() throws IOException {
+		for (int i = 0; i < 5; i++)
+			ShiftLow();
+		outStream.write(buffer, 0, buffer_ind);
+		buffer_ind = 0;
+	}
+}
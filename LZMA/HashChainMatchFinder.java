@@ -0,0 +1,73 @@
+package LZMA;
+
+/*
+ * Match finder following singly linked chains of earlier positions with the
+ * same 3 byte hash. Cheap to update, so skipping is fast; search cost grows
+ * with depth.
+ */
+class HashChainMatchFinder extends MatchFinder {
+	final int [] chain;
+
+	HashChainMatchFinder(int dictionarySize, int niceLen, int depth) {
+		super(dictionarySize, niceLen, depth);
+		this.chain = new int[cyclicSize];
+	}
+
+	void find() {
+		matchCount = 0;
+		int avail = writePos - readPos;
+		if (avail < kHashBytes) {
+			chain[cyclicPos] = 0;
+			advance();
+			return;
+		}
+		int lenLimit = Math.min(niceLen, avail);
+
+		int curAbs = bufferOffset + readPos;
+		int h = hash(readPos);
+		int curMatch = head[h];
+		head[h] = curAbs;
+		chain[cyclicPos] = curMatch;
+
+		int maxLen = 1;
+		for (int d = depth; d > 0 && curMatch != 0; d--) {
+			int delta = curAbs - curMatch;
+			if (delta > dictionarySize)
+				break;
+
+			int p = readPos - delta;
+			if (buf[p + maxLen] == buf[readPos + maxLen] && buf[p] == buf[readPos]) {
+				int len = 1;
+				while (len < lenLimit && buf[p + len] == buf[readPos + len])
+					len++;
+				if (len > maxLen) {
+					matchLen[matchCount] = len;
+					matchDist[matchCount] = delta;
+					matchCount++;
+					maxLen = len;
+					if (len >= lenLimit)
+						break;
+				}
+			}
+			curMatch = chain[linkIndex(delta)];
+		}
+		advance();
+	}
+
+	void skip(int count) {
+		while (count-- > 0) {
+			if (writePos - readPos >= kHashBytes) {
+				int h = hash(readPos);
+				chain[cyclicPos] = head[h];
+				head[h] = bufferOffset + readPos;
+			} else {
+				chain[cyclicPos] = 0;
+			}
+			advance();
+		}
+	}
+
+	void normalizeLinks(int norm) {
+		normalize(chain, norm);
+	}
+}
@@ -0,0 +1,186 @@
+package LZMA;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.IOException;
+
+/*
+ * Decoder for raw LZMA2 data, the chunked form of LZMA stored in .xz blocks.
+ * Every chunk is either LZMA coded, optionally after resetting the state,
+ * the properties or the dictionary, or stored as is. The LZMA chunks are
+ * decoded by LzmaInputStream; only the chunk framing is handled here, in
+ * fill_buffer().
+ *
+ * A chunk's compressed bytes are read whole before it is decoded, so the
+ * range decoder never reads past the chunk and the underlying stream is left
+ * right after the end of the LZMA2 data.
+ */
+class Lzma2InputStream extends LzmaInputStream {
+	static final int kMaxPackedSize = 1 << 16;
+	static final int kMaxLcPlusLp = 4;
+
+	final byte [] packed = new byte[kMaxPackedSize];
+	int chunkRemaining;
+	boolean chunkIsLzma;
+	boolean needDictionaryReset = true;
+	boolean needProperties = true;
+	boolean isFinished;
+	long inputCount;
+
+	/*
+	 * outSize is the exact uncompressed size, or -1 when it is unknown.
+	 */
+	Lzma2InputStream (InputStream in, int windowSize, long outSize, long memoryLimit) throws IOException {
+		super(memoryLimit);
+
+		int lzmaInternalSize = LZMA_BASE_SIZE + (LZMA_LIT_SIZE << kMaxLcPlusLp);
+		long required = windowSize + 2L * lzmaInternalSize + kMaxPackedSize;
+		if (required > memoryLimit)
+			throw new LzmaException ("LZMA : decoding needs " + required + " bytes, over the limit of " + memoryLimit);
+
+		this.in = in;
+		isClosed = false;
+
+		probs = new short[lzmaInternalSize];
+		dictionarySize = Math.max(1, windowSize);
+		dictionary = new byte[dictionarySize];
+		GlobalOutSize = outSize == -1 ? Long.MAX_VALUE : outSize;
+	}
+
+	void fill_buffer() throws IOException {
+		uncompressed_start = dictionaryPos;
+		uncompressed_offset = 0;
+		uncompressed_size = 0;
+
+		if (chunkRemaining == 0 && !nextChunk())
+			return;
+
+		int blockSize = Math.min(chunkRemaining, Math.min(kBlockSize, dictionarySize));
+		if (GlobalNowPos + blockSize > GlobalOutSize)
+			throw new LzmaException ("LZMA2 : more data than the size given");
+
+		if (chunkIsLzma) {
+			LzmaDecode(blockSize);
+			if (uncompressed_size != blockSize)
+				throw new LzmaException ("LZMA2 : Data Error");
+		} else {
+			copyUncompressed(blockSize);
+		}
+		chunkRemaining -= blockSize;
+		GlobalNowPos += blockSize;
+
+		if (chunkRemaining == 0 && chunkIsLzma && !RangeDecoder.isFinished())
+			throw new LzmaException ("LZMA2 : Data Error");
+	}
+
+	/*
+	 * Reads the next chunk header and sets up its decoding; false once the
+	 * end of the data is reached.
+	 */
+	private boolean nextChunk() throws IOException {
+		if (isFinished)
+			return false;
+
+		int control = readByte();
+		if (control == 0x00) {
+			isFinished = true;
+			if (GlobalOutSize != Long.MAX_VALUE && GlobalNowPos != GlobalOutSize)
+				throw new LzmaException ("LZMA2 : " + GlobalNowPos + " bytes decoded, " + GlobalOutSize + " expected");
+			return false;
+		}
+
+		if (control >= 0xE0 || control == 0x01) {
+			needProperties = true;
+			needDictionaryReset = false;
+			GlobalPos = 0;
+			RemainLen = 0;
+		} else if (needDictionaryReset) {
+			throw new LzmaException ("LZMA2 : Data Error");
+		}
+
+		if (control >= 0x80) {
+			chunkIsLzma = true;
+			chunkRemaining = ((control & 0x1F) << 16) + (readByte() << 8) + readByte() + 1;
+			int packedSize = (readByte() << 8) + readByte() + 1;
+
+			if (control >= 0xC0) {
+				needProperties = false;
+				setProperties(readByte());
+			} else if (needProperties) {
+				throw new LzmaException ("LZMA2 : Data Error");
+			}
+			if (control >= 0xA0)
+				resetState();
+
+			readFully(packed, 0, packedSize);
+			InputStream chunk = new ByteArrayInputStream(packed, 0, packedSize);
+			if (RangeDecoder == null)
+				RangeDecoder = new CRangeDecoder(chunk);
+			else
+				RangeDecoder.reset(chunk);
+		} else {
+			if (control > 0x02)
+				throw new LzmaException ("LZMA2 : Data Error");
+			chunkIsLzma = false;
+			chunkRemaining = (readByte() << 8) + readByte() + 1;
+		}
+		return true;
+	}
+
+	private void setProperties(int props) throws IOException {
+		lc = props % 9;
+		lp = (props / 9) % 5;
+		pb = props / 45;
+		if (pb > 4 || lc + lp > kMaxLcPlusLp)
+			throw new LzmaException ("LZMA2 : Properties error");
+	}
+
+	private void copyUncompressed(int len) throws IOException {
+		int first = Math.min(len, dictionarySize - dictionaryPos);
+		readFully(dictionary, dictionaryPos, first);
+		readFully(dictionary, 0, len - first);
+
+		dictionaryPos = len - first > 0 ? len - first : dictionaryPos + len;
+		if (dictionaryPos == dictionarySize)
+			dictionaryPos = 0;
+		GlobalPos += len;
+		uncompressed_size = len;
+	}
+
+	public long getCompressedBytes () {
+		return inputCount;
+	}
+
+	/*
+	 * Decodes everything into the window, which has to be at least as large
+	 * as the output, and returns the output.
+	 */
+	byte [] decodeFully() throws IOException {
+		do {
+			fill_buffer();
+		} while (uncompressed_size > 0);
+
+		if (dictionary.length == GlobalNowPos)
+			return dictionary;
+		return java.util.Arrays.copyOf(dictionary, (int)GlobalNowPos);
+	}
+
+	private int readByte() throws IOException {
+		int b = in.read();
+		if (b == -1)
+			throw new LzmaException ("LZMA2 : unexpected end of input");
+		inputCount++;
+		return b;
+	}
+
+	private void readFully(byte [] buf, int off, int len) throws IOException {
+		while (len > 0) {
+			int n = in.read(buf, off, len);
+			if (n == -1)
+				throw new LzmaException ("LZMA2 : unexpected end of input");
+			off += n;
+			len -= n;
+			inputCount += n;
+		}
+	}
+}
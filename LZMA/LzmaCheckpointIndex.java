@@ -0,0 +1,208 @@
+package LZMA;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+/*
+ * Checkpoints of an LzmaInputStream decoding a .lzma file, stored beside the
+ * file as <name>.checkpoints so that LzmaInputStream.seek() can resume
+ * decoding near a position instead of at the start.
+ *
+ * The file holds a header naming the size and modification time of the
+ * .lzma file it was built from, the checkpoints one after the other, then a
+ * table locating them and finally the offset of that table. A checkpoint is
+ * the decoder state plus the output since the previous checkpoint, at most a
+ * dictionary's worth; resuming stitches the window together from the
+ * checkpoints before it. No output byte is stored twice, so the index stays
+ * below the size of the decoded data whatever the interval.
+ */
+public class LzmaCheckpointIndex {
+	static final int MAGIC = 0x4C5A4350; // "LZCP"
+	static final int VERSION = 1;
+
+	final Path file;
+	long [] positions = new long[16];
+	long [] offsets = new long[16];
+	long [] windowOffsets = new long[16];
+	int [] windowLengths = new int[16];
+	int count;
+
+	// only while recording
+	long interval;
+	long nextCheckpoint;
+	private Path tempFile;
+	private FileOutputStream fileOut;
+	private DataOutputStream out;
+
+	private LzmaCheckpointIndex (Path file) {
+		this.file = file;
+	}
+
+	public static Path getIndexFile (Path lzmaFile) {
+		return lzmaFile.resolveSibling(lzmaFile.getFileName() + ".checkpoints");
+	}
+
+	/*
+	 * The index stored beside lzmaFile, or null if there is none or it was
+	 * built from a different version of the file.
+	 */
+	public static LzmaCheckpointIndex load (Path lzmaFile) throws IOException {
+		Path indexFile = getIndexFile(lzmaFile);
+		if (!Files.isRegularFile(indexFile))
+			return null;
+
+		RandomAccessFile raf = new RandomAccessFile(indexFile.toFile(), "r");
+		try {
+			if (raf.readInt() != MAGIC || raf.readInt() != VERSION
+			        || raf.readLong() != Files.size(lzmaFile)
+			        || raf.readLong() != Files.getLastModifiedTime(lzmaFile).toMillis())
+				return null;
+
+			LzmaCheckpointIndex index = new LzmaCheckpointIndex(indexFile);
+			index.interval = raf.readLong();
+
+			raf.seek(raf.length() - 8);
+			raf.seek(raf.readLong());
+			DataInputStream table = new DataInputStream(new BufferedInputStream(Channels.newInputStream(raf.getChannel())));
+			index.count = table.readInt();
+			index.positions = new long[index.count];
+			index.offsets = new long[index.count];
+			index.windowOffsets = new long[index.count];
+			index.windowLengths = new int[index.count];
+			for (int i = 0; i < index.count; i++) {
+				index.positions[i] = table.readLong();
+				index.offsets[i] = table.readLong();
+				index.windowOffsets[i] = table.readLong();
+				index.windowLengths[i] = table.readInt();
+			}
+			return index;
+		} catch (EOFException e) {
+			return null;
+		} finally {
+			raf.close();
+		}
+	}
+
+	/*
+	 * Starts writing the index of lzmaFile, into a temporary file until
+	 * finish().
+	 */
+	static LzmaCheckpointIndex record (Path lzmaFile, long interval, long position) throws IOException {
+		LzmaCheckpointIndex index = new LzmaCheckpointIndex(getIndexFile(lzmaFile));
+		index.interval = interval;
+		index.nextCheckpoint = position + interval;
+		index.tempFile = index.file.resolveSibling(index.file.getFileName() + ".tmp");
+		index.fileOut = new FileOutputStream(index.tempFile.toFile());
+		index.out = new DataOutputStream(new BufferedOutputStream(index.fileOut));
+
+		index.out.writeInt(MAGIC);
+		index.out.writeInt(VERSION);
+		index.out.writeLong(Files.size(lzmaFile));
+		index.out.writeLong(Files.getLastModifiedTime(lzmaFile).toMillis());
+		index.out.writeLong(interval);
+		return index;
+	}
+
+	void add (LzmaInputStream decoder) throws IOException {
+		if (count == positions.length) {
+			positions = Arrays.copyOf(positions, count * 2);
+			offsets = Arrays.copyOf(offsets, count * 2);
+			windowOffsets = Arrays.copyOf(windowOffsets, count * 2);
+			windowLengths = Arrays.copyOf(windowLengths, count * 2);
+		}
+		long position = decoder.GlobalNowPos;
+		long stored = count == 0 ? 0 : positions[count - 1];
+		int windowLength = decoder.checkpointWindow(position - stored);
+
+		out.flush();
+		offsets[count] = fileOut.getChannel().position();
+		decoder.writeCheckpoint(out);
+		out.flush();
+		windowOffsets[count] = fileOut.getChannel().position();
+		decoder.writeWindow(out, windowLength);
+
+		positions[count] = position;
+		windowLengths[count] = windowLength;
+		count++;
+		nextCheckpoint = position + interval;
+	}
+
+	void finish () throws IOException {
+		boolean finished = false;
+		try {
+			out.flush();
+			long tableOffset = fileOut.getChannel().position();
+			out.writeInt(count);
+			for (int i = 0; i < count; i++) {
+				out.writeLong(positions[i]);
+				out.writeLong(offsets[i]);
+				out.writeLong(windowOffsets[i]);
+				out.writeInt(windowLengths[i]);
+			}
+			out.writeLong(tableOffset);
+			out.close();
+			Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING);
+			finished = true;
+		} finally {
+			if (!finished)
+				abort();
+		}
+	}
+
+	void abort () {
+		try {
+			out.close();
+		} catch (IOException e) {
+		}
+		try {
+			Files.deleteIfExists(tempFile);
+		} catch (IOException e) {
+		}
+	}
+
+	/*
+	 * Index of the last checkpoint at or before position, or -1.
+	 */
+	int floor (long position) {
+		int i = Arrays.binarySearch(positions, 0, count, position);
+		return i >= 0 ? i : -i - 2;
+	}
+
+	void restore (int checkpoint, LzmaInputStream decoder) throws IOException {
+		long position = positions[checkpoint];
+		long windowStart = position - decoder.checkpointWindow(position);
+
+		RandomAccessFile raf = new RandomAccessFile(file.toFile(), "r");
+		try {
+			raf.seek(offsets[checkpoint]);
+			decoder.readCheckpoint(new DataInputStream(new BufferedInputStream(Channels.newInputStream(raf.getChannel()))));
+			if (decoder.GlobalNowPos != position)
+				throw new LzmaException ("LZMA : checkpoint index corrupted");
+
+			// each checkpoint's window ends where the next one's starts
+			long end = position;
+			for (int i = checkpoint; end > windowStart; i--) {
+				if (i < 0 || positions[i] != end)
+					throw new LzmaException ("LZMA : checkpoint index corrupted");
+				long segmentStart = end - windowLengths[i];
+				long from = Math.max(segmentStart, windowStart);
+				raf.seek(windowOffsets[i] + (from - segmentStart));
+				raf.readFully(decoder.dictionary, (int)(from - windowStart), (int)(end - from));
+				end = from;
+			}
+		} finally {
+			raf.close();
+		}
+	}
+}
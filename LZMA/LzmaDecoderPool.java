@@ -0,0 +1,65 @@
+package LZMA;
+
+import java.io.InputStream;
+import java.io.IOException;
+
+/*
+ * Bounded pool of idle LzmaInputStream decoders. acquire() reads the stream
+ * header and hands out an idle decoder whose probability model and dictionary
+ * fit it (same lc + lp, window at least as large), so repeated decodes of
+ * similar streams reuse the same arrays instead of allocating new ones.
+ */
+public class LzmaDecoderPool {
+	private final LzmaInputStream [] idle;
+	private int idleCount;
+	private final long memoryLimit;
+
+	public LzmaDecoderPool (int capacity) {
+		this(capacity, Long.MAX_VALUE);
+	}
+
+	public LzmaDecoderPool (int capacity, long memoryLimit) {
+		this.idle = new LzmaInputStream[capacity];
+		this.memoryLimit = memoryLimit;
+	}
+
+	public LzmaInputStream acquire (InputStream in) throws IOException {
+		int prop0 = (int)LzmaInputStream.readHeaderField(in, 1, "Properties error");
+		long dictionarySize = LzmaInputStream.readHeaderField(in, 4, "Properties error");
+		long outSize = LzmaInputStream.readHeaderField(in, 8, "Size error");
+
+		LzmaInputStream decoder = take(prop0, dictionarySize, outSize);
+		if (decoder == null)
+			decoder = new LzmaInputStream(memoryLimit);
+		decoder.reset(in, prop0, dictionarySize, outSize);
+		return decoder;
+	}
+
+	/*
+	 * Returns a decoder to the pool once the caller is done with it. The
+	 * decoder does not need to be closed first: a pending verifyOutput digest
+	 * is aborted so its thread ends whether the decoder is kept or dropped
+	 * because the pool is full, and checkpoints still being recorded are
+	 * dropped so they are never stored beside the wrong file. The progress
+	 * listener is let go, so the next owner is not reported to it.
+	 */
+	public synchronized void release (LzmaInputStream decoder) {
+		decoder.abortOutputDigest();
+		decoder.dropCheckpoints();
+		decoder.setProgressListener(null);
+		if (idleCount < idle.length)
+			idle[idleCount++] = decoder;
+	}
+
+	private synchronized LzmaInputStream take (int prop0, long dictionarySize, long outSize) {
+		for (int i = idleCount - 1; i >= 0; i--) {
+			LzmaInputStream decoder = idle[i];
+			if (decoder.fits(prop0, dictionarySize, outSize)) {
+				idle[i] = idle[--idleCount];
+				idle[idleCount] = null;
+				return decoder;
+			}
+		}
+		return null;
+	}
+}
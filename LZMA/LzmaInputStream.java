@@ -1,7 +1,17 @@
 package LZMA;
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.InputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 
 public class LzmaInputStream extends java.io.FilterInputStream {
 	boolean isClosed;
@@ -17,13 +27,26 @@ public class LzmaInputStream extends java.io.FilterInputStream {
 	int State;
 	boolean PreviousIsMatch;
 	int RemainLen;
-	int [] probs;
+	short [] probs;
 
-	byte [] uncompressed_buffer;
+	int uncompressed_start;
 	int uncompressed_size;
 	int uncompressed_offset;
 	long GlobalNowPos;
 	long GlobalOutSize;
+	long memoryLimit;
+
+	LzmaCheckpointIndex checkpointIndex;
+	LzmaCheckpointIndex recording;
+	LzmaOutputDigest outputDigest;
+
+	LzmaProgressListener progressListener;
+	boolean referenceMatchCopy;
+	long decodedBytes;
+	long decodeNanos;
+	long literals;
+	long matches;
+	long repMatches;
 
 	static final int LZMA_BASE_SIZE = 1846;
 	static final int LZMA_LIT_SIZE  = 768;
@@ -58,16 +81,79 @@ public class LzmaInputStream extends java.io.FilterInputStream {
 	static final int Literal     = (RepLenCoder + CRangeDecoder.kNumLenProbs);
 
 	public LzmaInputStream (InputStream in) throws IOException {
+		this(in, Long.MAX_VALUE);
+	}
+
+	/*
+	 * memoryLimit bounds the bytes the decoder may allocate for its dictionary
+	 * and probability model; streams needing more are rejected before anything
+	 * is allocated.
+	 */
+	public LzmaInputStream (InputStream in, long memoryLimit) throws IOException {
 		super(in);
 
 		isClosed = false;
+		this.memoryLimit = memoryLimit;
 
 		readHeader();
 
-		fill_buffer();
+		nextBlock();
+	}
+
+	public LzmaInputStream (Path path) throws IOException {
+		this(path, Long.MAX_VALUE);
+	}
+
+	public LzmaInputStream (Path path, long memoryLimit) throws IOException {
+		this(FileChannel.open(path, StandardOpenOption.READ), memoryLimit);
+	}
+
+	public LzmaInputStream (FileChannel channel) throws IOException {
+		this(channel, Long.MAX_VALUE);
+	}
+
+	/*
+	 * Decodes the file from the channel's position to its end. The file is
+	 * memory-mapped and the range decoder reads the compressed bytes in place;
+	 * only files over 2 GB, which cannot be mapped in one piece, are read
+	 * through the channel. Closing this stream closes the channel, but the
+	 * mapping lasts until it is garbage collected, and on Windows the file
+	 * cannot be deleted or replaced until then.
+	 */
+	public LzmaInputStream (FileChannel channel, long memoryLimit) throws IOException {
+		super(Channels.newInputStream(channel));
+
+		isClosed = false;
+		this.memoryLimit = memoryLimit;
+
+		long position = channel.position();
+		long size = channel.size() - position;
+		if (size > Integer.MAX_VALUE) {
+			readHeader();
+		} else {
+			ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+			mapped.order(ByteOrder.LITTLE_ENDIAN);
+			if (mapped.remaining() < 13)
+				throw new LzmaException ("LZMA header corrupted : Size error");
+			int prop0 = mapped.get() & 0xFF;
+			long headerDictionarySize = mapped.getInt() & 0xFFFFFFFFL;
+			long outSize = mapped.getLong();
+
+			init(prop0, headerDictionarySize, outSize);
+			RangeDecoder = new MappedRangeDecoder(mapped);
+		}
+
+		nextBlock();
+	}
+
+	LzmaInputStream (long memoryLimit) {
+		super(null);
+
+		isClosed = true;
+		this.memoryLimit = memoryLimit;
 	}
 
-	private void LzmaDecode(int outSize)  throws IOException {
+	void LzmaDecode(int outSize)  throws IOException {
 		byte previousbyte;
 		int posStateMask = (1 << (pb)) - 1;
 		int literalPosMask = (1 << (lp)) - 1;
@@ -78,16 +164,15 @@ public class LzmaInputStream extends java.io.FilterInputStream {
 			return ;
 		}
 
-		while(RemainLen > 0 && uncompressed_size < outSize) {
-			int pos = dictionaryPos - rep0;
-			if (pos < 0)
-				pos += dictionarySize;
-			uncompressed_buffer[uncompressed_size++] = dictionary[dictionaryPos] = dictionary[pos];
-			if (++dictionaryPos == dictionarySize)
-				dictionaryPos = 0;
-			RemainLen--;
+		if (RemainLen > 0 && uncompressed_size < outSize) {
+			int len = Math.min(RemainLen, outSize - uncompressed_size);
+			copyMatch(len);
+			uncompressed_size += len;
+			RemainLen -= len;
 		}
-		if (dictionaryPos == 0)
+		if (GlobalPos == 0)
+			previousbyte = 0;
+		else if (dictionaryPos == 0)
 			previousbyte = dictionary[dictionarySize - 1];
 		else
 			previousbyte = dictionary[dictionaryPos - 1];
@@ -118,7 +203,8 @@ public class LzmaInputStream extends java.io.FilterInputStream {
 					previousbyte = RangeDecoder.LzmaLiteralDecode(probs,ind_prob);
 				}
 
-				uncompressed_buffer[uncompressed_size++] = previousbyte;
+				uncompressed_size++;
+				literals++;
 
 				dictionary[dictionaryPos] = previousbyte;
 				if (++dictionaryPos == dictionarySize)
@@ -127,6 +213,7 @@ public class LzmaInputStream extends java.io.FilterInputStream {
 			} else {
 				PreviousIsMatch = true;
 				if (RangeDecoder.BitDecode(probs, IsRep + State) == 1) {
+					repMatches++;
 					if (RangeDecoder.BitDecode(probs, IsRepG0 + State) == 0) {
 						if (RangeDecoder.BitDecode(probs, IsRep0Long + (State << CRangeDecoder.kNumPosBitsMax) + posState) == 0) {
 
@@ -143,7 +230,7 @@ public class LzmaInputStream extends java.io.FilterInputStream {
 							if (++dictionaryPos == dictionarySize)
 								dictionaryPos = 0;
 
-							uncompressed_buffer[uncompressed_size++] = previousbyte;
+							uncompressed_size++;
 							continue;
 						}
 					} else {
@@ -165,6 +252,7 @@ public class LzmaInputStream extends java.io.FilterInputStream {
 					RemainLen = RangeDecoder.LzmaLenDecode(probs, RepLenCoder, posState);
 					State = State < 7 ? 8 : 11;
 				} else {
+					matches++;
 					rep3 = rep2;
 					rep2 = rep1;
 					rep1 = rep0;
@@ -189,11 +277,12 @@ public class LzmaInputStream extends java.io.FilterInputStream {
 					rep0++;
 				}
 				if (rep0 == 0) {
-
+					// the end marker is coded as a match
+					matches--;
 					RemainLen = -1;
 					break;
 				}
-				if (rep0 > uncompressed_size
+				if (rep0 < 0 || rep0 > uncompressed_size
 
 				        + GlobalPos
 
@@ -201,33 +290,73 @@ public class LzmaInputStream extends java.io.FilterInputStream {
 					throw new LzmaException ("LZMA : Data Error");
 				}
 				RemainLen += kMatchMinLen;
-				do {
-
-					int pos = dictionaryPos - rep0;
-					if (pos < 0)
-						pos += dictionarySize;
-					previousbyte = dictionary[pos];
-					dictionary[dictionaryPos] = previousbyte;
-					if (++dictionaryPos == dictionarySize)
-						dictionaryPos = 0;
-
-					uncompressed_buffer[uncompressed_size++] = previousbyte;
-					RemainLen--;
-				} while(RemainLen > 0 && uncompressed_size < outSize);
+				int len = Math.min(RemainLen, outSize - uncompressed_size);
+				copyMatch(len);
+				uncompressed_size += len;
+				RemainLen -= len;
+				previousbyte = dictionary[(dictionaryPos == 0 ? dictionarySize : dictionaryPos) - 1];
 			}
 		}
 
 		GlobalPos = GlobalPos + uncompressed_size;
 	}
 
-	private void fill_buffer() throws IOException {
+	/*
+	 * Appends len bytes copied from rep0 bytes back. When neither the source
+	 * nor the destination wraps around the end of the dictionary this is done
+	 * with bulk copies: a plain arraycopy when the ranges cannot clobber each
+	 * other, a fill for runs (rep0 == 1), and otherwise arraycopies of the
+	 * already written period that double in size. Wrapping matches fall back
+	 * to the byte by byte loop.
+	 */
+	private void copyMatch(int len) {
+		int pos = dictionaryPos - rep0;
+		if (pos < 0)
+			pos += dictionarySize;
+
+		if (!referenceMatchCopy && pos + len <= dictionarySize && dictionaryPos + len <= dictionarySize) {
+			if (pos >= dictionaryPos || rep0 >= len) {
+				System.arraycopy(dictionary, pos, dictionary, dictionaryPos, len);
+			} else if (rep0 == 1) {
+				java.util.Arrays.fill(dictionary, dictionaryPos, dictionaryPos + len, dictionary[pos]);
+			} else {
+				// copying whole periods keeps the source ahead of what is being written
+				for (int done = 0; done < len; ) {
+					int chunk = Math.min(len - done, rep0 + done);
+					System.arraycopy(dictionary, pos, dictionary, dictionaryPos + done, chunk);
+					done += chunk;
+				}
+			}
+			dictionaryPos += len;
+			if (dictionaryPos == dictionarySize)
+				dictionaryPos = 0;
+			return;
+		}
+
+		for (int i = 0; i < len; i++) {
+			dictionary[dictionaryPos] = dictionary[pos];
+			if (++pos == dictionarySize)
+				pos = 0;
+			if (++dictionaryPos == dictionarySize)
+				dictionaryPos = 0;
+		}
+	}
+
+	/*
+	 * Decoded bytes are served straight out of the dictionary window: a block
+	 * starts at uncompressed_start and is never larger than the dictionary, so
+	 * it stays intact until the caller has consumed it.
+	 */
+	void fill_buffer() throws IOException {
+		if (recording != null && GlobalNowPos >= recording.nextCheckpoint && GlobalNowPos < GlobalOutSize)
+			recording.add(this);
+
 		if (GlobalNowPos < GlobalOutSize) {
 			uncompressed_offset = 0;
+			uncompressed_start = dictionaryPos;
 			long lblockSize = GlobalOutSize - GlobalNowPos;
-			int blockSize;
-			if (lblockSize > kBlockSize)
-				blockSize = kBlockSize;
-			else
+			int blockSize = Math.min(kBlockSize, dictionarySize);
+			if (lblockSize < blockSize)
 				blockSize = (int)lblockSize;
 
 			LzmaDecode(blockSize);
@@ -238,25 +367,298 @@ public class LzmaInputStream extends java.io.FilterInputStream {
 				GlobalNowPos += uncompressed_size;
 			}
 		}
+
+		if (recording != null && GlobalNowPos == GlobalOutSize) {
+			LzmaCheckpointIndex index = recording;
+			recording = null;
+			index.finish();
+			checkpointIndex = index;
+		}
+	}
+
+	/*
+	 * Writes a checkpoint index for lzmaFile, the file this stream decodes,
+	 * while the stream is read: a snapshot of the decoder about every interval
+	 * bytes of output. The index is stored beside the file once the whole
+	 * stream has been read, and this stream then seeks with it.
+	 */
+	public void recordCheckpoints (Path lzmaFile, long interval) throws IOException {
+		if (interval < kBlockSize)
+			throw new IllegalArgumentException("checkpoint interval must be at least " + kBlockSize);
+		if (recording != null)
+			recording.abort();
+		recording = LzmaCheckpointIndex.record(lzmaFile, interval, GlobalNowPos);
+	}
+
+	public void setCheckpointIndex (LzmaCheckpointIndex index) {
+		checkpointIndex = index;
+	}
+
+	/*
+	 * Called after every block decoded from now on, until the next reset(),
+	 * with the counters below already updated.
+	 */
+	public void setProgressListener (LzmaProgressListener listener) {
+		progressListener = listener;
+	}
+
+	/*
+	 * Copies every match byte by byte, the way the decoder did before the
+	 * bulk copies, so benchmark.LzmaDecodeCheck can check the two against
+	 * each other. Applies from the next block on; reset() the stream to
+	 * decode all of it this way.
+	 */
+	public void setReferenceMatchCopy (boolean reference) {
+		referenceMatchCopy = reference;
+	}
+
+	/*
+	 * Size of the decoded data, or -1 when the header does not give it and
+	 * the end has not been reached yet.
+	 */
+	public long getOutputSize () {
+		return GlobalOutSize == Long.MAX_VALUE ? -1 : GlobalOutSize;
+	}
+
+	/*
+	 * Position in the decoded data of the next byte decoded.
+	 */
+	public long getOutputPosition () {
+		return GlobalNowPos;
+	}
+
+	/*
+	 * Compressed bytes taken from the input so far, not counting the header.
+	 */
+	public long getCompressedBytes () {
+		return RangeDecoder == null ? 0 : RangeDecoder.position();
+	}
+
+	/*
+	 * Bytes decoded by this stream, including any decoded again after a seek
+	 * and those skipped or not read yet.
+	 */
+	public long getDecodedBytes () {
+		return decodedBytes;
+	}
+
+	/*
+	 * Time spent decoding blocks, in nanoseconds, leaving out the time the
+	 * caller spends with the output.
+	 */
+	public long getDecodeNanos () {
+		return decodeNanos;
+	}
+
+	public long getLiteralCount () {
+		return literals;
+	}
+
+	public long getMatchCount () {
+		return matches;
+	}
+
+	/*
+	 * Matches reusing one of the last four distances, including the single
+	 * byte ones.
+	 */
+	public long getRepMatchCount () {
+		return repMatches;
+	}
+
+	/*
+	 * Checks the decoded data against its SHA-256, which is computed on a
+	 * second thread while decoding goes on. A mismatch is thrown as an
+	 * LzmaException by the read that reaches the end of the stream, so the
+	 * data is only verified if it is read to the end. Has to be called before
+	 * anything is read; seeking gives up on the check.
+	 */
+	public void verifyOutput (byte [] sha256) throws IOException {
+		if (isClosed)
+			throw new IOException ("stream closed");
+		if (uncompressed_offset != 0 || GlobalNowPos != uncompressed_size)
+			throw new IllegalStateException("output already read");
+
+		abortOutputDigest();
+		outputDigest = new LzmaOutputDigest(sha256, Math.min(kBlockSize, dictionarySize));
+		blockDecoded();
+	}
+
+	/*
+	 * Moves to a position in the decoded output; only streams decoding a
+	 * memory-mapped file can seek. Decoding resumes from the nearest
+	 * checkpoint at or before the position, or from the start of the stream
+	 * without one, unless the position lies ahead with no closer checkpoint
+	 * in between, in which case the stream just decodes forward. Seeking past
+	 * the end leaves the stream at its end.
+	 */
+	public void seek (long position) throws IOException {
+		if (isClosed)
+			throw new IOException ("stream closed");
+		if (!(RangeDecoder instanceof MappedRangeDecoder))
+			throw new IOException ("LZMA : only streams decoding a mapped file can seek");
+		if (position < 0)
+			throw new IllegalArgumentException("negative position " + position);
+
+		if (recording != null) {
+			recording.abort();
+			recording = null;
+		}
+		abortOutputDigest();
+
+		long current = GlobalNowPos - (uncompressed_size - uncompressed_offset);
+		int checkpoint = checkpointIndex == null ? -1 : checkpointIndex.floor(position);
+		long checkpointPos = checkpoint == -1 ? 0 : checkpointIndex.positions[checkpoint];
+
+		if (position < current || checkpointPos > current) {
+			if (checkpoint == -1)
+				rewind();
+			else
+				checkpointIndex.restore(checkpoint, this);
+			current = GlobalNowPos;
+		}
+
+		discard(position - current);
+	}
+
+	private void rewind() throws IOException {
+		((MappedRangeDecoder)RangeDecoder).rewind();
+		dictionaryPos = 0;
+		GlobalPos = 0;
+		RemainLen = 0;
+		resetState();
+
+		uncompressed_start = 0;
+		uncompressed_size = 0;
+		uncompressed_offset = 0;
+		GlobalNowPos = 0;
+	}
+
+	/*
+	 * Snapshot of the decoder between two blocks: range decoder, match state
+	 * and probability model. The window is saved separately, with
+	 * writeWindow().
+	 */
+	void writeCheckpoint(DataOutput out) throws IOException {
+		int numProbs = Literal + (LZMA_LIT_SIZE << (lc + lp));
+
+		out.writeLong(GlobalNowPos);
+		out.writeLong(RangeDecoder.position());
+		out.writeInt(RangeDecoder.Range);
+		out.writeInt(RangeDecoder.Code);
+		out.writeInt(rep0);
+		out.writeInt(rep1);
+		out.writeInt(rep2);
+		out.writeInt(rep3);
+		out.writeInt(State);
+		out.writeBoolean(PreviousIsMatch);
+		out.writeInt(RemainLen);
+		out.writeInt(GlobalPos);
+
+		out.writeInt(numProbs);
+		for (int i = 0; i < numProbs; i++)
+			out.writeShort(probs[i]);
+	}
+
+	/*
+	 * Writes the last len bytes of output, which have to be in the window.
+	 */
+	void writeWindow(OutputStream out, int len) throws IOException {
+		int start = dictionaryPos - len;
+		if (start < 0) {
+			out.write(dictionary, start + dictionarySize, -start);
+			out.write(dictionary, 0, dictionaryPos);
+		} else {
+			out.write(dictionary, start, len);
+		}
+	}
+
+	/*
+	 * Number of bytes before position that a decoder resuming there needs in
+	 * its window.
+	 */
+	int checkpointWindow(long position) {
+		return (int)Math.min(dictionarySize, position);
+	}
+
+	/*
+	 * Restores a snapshot written by writeCheckpoint(). The caller puts the
+	 * window, checkpointWindow() bytes long, at the start of the dictionary.
+	 */
+	void readCheckpoint(DataInput in) throws IOException {
+		long nowPos = in.readLong();
+		long inputPos = in.readLong();
+		int range = in.readInt();
+		int code = in.readInt();
+		rep0 = in.readInt();
+		rep1 = in.readInt();
+		rep2 = in.readInt();
+		rep3 = in.readInt();
+		State = in.readInt();
+		PreviousIsMatch = in.readBoolean();
+		RemainLen = in.readInt();
+		GlobalPos = in.readInt();
+
+		int numProbs = in.readInt();
+		if (numProbs != Literal + (LZMA_LIT_SIZE << (lc + lp)))
+			throw new LzmaException ("LZMA : checkpoint does not match the stream");
+		for (int i = 0; i < numProbs; i++)
+			probs[i] = in.readShort();
+
+		int window = checkpointWindow(nowPos);
+		dictionaryPos = window == dictionarySize ? 0 : window;
+
+		((MappedRangeDecoder)RangeDecoder).restore(inputPos, range, code);
+		uncompressed_start = dictionaryPos;
+		uncompressed_size = 0;
+		uncompressed_offset = 0;
+		GlobalNowPos = nowPos;
 	}
 
 	private void readHeader() throws IOException {
-		byte [] properties = new byte[5];
+		int prop0 = (int)readHeaderField(in, 1, "Properties error");
+		long headerDictionarySize = readHeaderField(in, 4, "Properties error");
+		long outSize = readHeaderField(in, 8, "Size error");
 
-		if (5 != in.read(properties))
-			throw new LzmaException ("LZMA header corrupted : Properties error");
+		init(prop0, headerDictionarySize, outSize);
+		startRangeDecoder();
+	}
 
-		GlobalOutSize = 0;
-		for (int ii = 0; ii < 8; ii++) {
+	private void startRangeDecoder() throws IOException {
+		if (RangeDecoder == null || RangeDecoder instanceof MappedRangeDecoder)
+			RangeDecoder = new CRangeDecoder(in);
+		else
+			RangeDecoder.reset(in);
+	}
+
+	static long readHeaderField(InputStream in, int bytes, String error) throws IOException {
+		long value = 0;
+		for (int ii = 0; ii < bytes; ii++) {
 			int b = in.read();
 			if (b == -1)
-				throw new LzmaException ("LZMA header corrupted : Size error");
-			GlobalOutSize += ((long)b) << (ii * 8);
+				throw new LzmaException ("LZMA header corrupted : " + error);
+			value += ((long)b) << (ii * 8);
 		}
+		return value;
+	}
 
+	static int windowSize(long headerDictionarySize, long outSize) {
+		if (outSize == -1) outSize = Long.MAX_VALUE;
+
+		// matches never reach further back than the start of the output, so a
+		// window larger than the whole output is never used
+		return (int)Math.min(Integer.MAX_VALUE, Math.max(1, Math.min(headerDictionarySize, outSize)));
+	}
+
+	/*
+	 * Sets up decoding for a stream whose 13 byte header has already been read,
+	 * keeping the dictionary and probability arrays when they are big enough.
+	 * The range decoder is left for the caller to start on the input.
+	 */
+	void init(int prop0, long headerDictionarySize, long outSize) throws IOException {
+		GlobalOutSize = outSize;
                 if (GlobalOutSize == -1) GlobalOutSize=Long.MAX_VALUE;
 
-		int prop0 = properties[0] & 0xFF;
 		if (prop0 >= (9*5*5)) {
 			throw new LzmaException ("LZMA header corrupted : Properties error");
 		}
@@ -269,34 +671,102 @@ public class LzmaInputStream extends java.io.FilterInputStream {
 
 		int lzmaInternalSize = (LZMA_BASE_SIZE + (LZMA_LIT_SIZE << (lc + lp)));
 
-		probs = new int[lzmaInternalSize];
+		long windowSize = windowSize(headerDictionarySize, GlobalOutSize);
+		long required = windowSize + 2L * lzmaInternalSize;
+		if (required > memoryLimit)
+			throw new LzmaException ("LZMA : decoding needs " + required + " bytes, over the limit of " + memoryLimit);
+		if (windowSize > Integer.MAX_VALUE - 8)
+			throw new LzmaException ("LZMA : dictionary of " + windowSize + " bytes is larger than a Java array can hold");
 
-		dictionarySize = 0;
-		for (int i = 0; i < 4; i++)
-			dictionarySize += (properties[1 + i]&0xFF) << (i * 8);
-		dictionary = new byte[dictionarySize];
-		if (dictionary == null) {
-			throw new LzmaException ("LZMA : can't allocate");
-		}
+		if (probs == null || probs.length < lzmaInternalSize)
+			probs = new short[lzmaInternalSize];
 
-		int numProbs = Literal + (LZMA_LIT_SIZE << (lc + lp));
+		dictionarySize = (int)windowSize;
+		if (dictionary == null || dictionary.length < dictionarySize)
+			dictionary = new byte[dictionarySize];
 
-		RangeDecoder = new CRangeDecoder(in);
 		dictionaryPos = 0;
 		GlobalPos = 0;
+		RemainLen = 0;
+		resetState();
+
+		uncompressed_start = 0;
+		uncompressed_size = 0;
+		uncompressed_offset = 0;
+
+		GlobalNowPos = 0;
+
+		decodedBytes = 0;
+		decodeNanos = 0;
+		literals = 0;
+		matches = 0;
+		repMatches = 0;
+	}
+
+	/*
+	 * Puts the probability model and the match state back to where a stream
+	 * starts, for the current lc and lp.
+	 */
+	void resetState() {
+		int numProbs = Literal + (LZMA_LIT_SIZE << (lc + lp));
+
 		rep0 = rep1 = rep2 = rep3 = 1;
 		State = 0;
 		PreviousIsMatch = false;
-		RemainLen = 0;
-		dictionary[dictionarySize - 1] = 0;
 		for (int i = 0; i < numProbs; i++)
 			probs[i] = CRangeDecoder.kBitModelTotal >> 1;
+	}
 
-		uncompressed_buffer = new byte [kBlockSize];
-		uncompressed_size = 0;
-		uncompressed_offset = 0;
+	/*
+	 * Whether this decoder's buffers are big enough for a stream with the
+	 * given header.
+	 */
+	boolean fits(int prop0, long headerDictionarySize, long outSize) {
+		if (prop0 >= (9*5*5) || probs == null)
+			return false;
+		int lcPlusLp = prop0 % 9 + (prop0 / 9) % 5;
+		return probs.length >= LZMA_BASE_SIZE + (LZMA_LIT_SIZE << lcPlusLp)
+		       && dictionary.length >= windowSize(headerDictionarySize, outSize);
+	}
 
-		GlobalNowPos = 0;
+	/*
+	 * Starts decoding a new stream, reusing this decoder's buffers.
+	 */
+	public void reset (InputStream in) throws IOException {
+		this.in = in;
+		isClosed = false;
+		abortOutputDigest();
+		dropCheckpoints();
+		progressListener = null;
+
+		readHeader();
+
+		nextBlock();
+	}
+
+	void reset (InputStream in, int prop0, long headerDictionarySize, long outSize) throws IOException {
+		this.in = in;
+		isClosed = false;
+		abortOutputDigest();
+		dropCheckpoints();
+		progressListener = null;
+
+		init(prop0, headerDictionarySize, outSize);
+		startRangeDecoder();
+
+		nextBlock();
+	}
+
+	public int read () throws IOException {
+		if (isClosed)
+			throw new IOException ("stream closed");
+
+		if (buffered() == 0)
+			return -1;
+
+		int b = dictionary[bufferedPos()] & 0xFF;
+		uncompressed_offset++;
+		return b;
 	}
 
 	public int read (byte[] buf, int off, int len) throws IOException {
@@ -309,19 +779,174 @@ public class LzmaInputStream extends java.io.FilterInputStream {
 		if (len == 0)
 			return 0;
 
-		if (uncompressed_offset == uncompressed_size)
-			fill_buffer();
-		if (uncompressed_offset == uncompressed_size)
+		int l = Math.min(len, buffered());
+		if (l == 0)
 			return -1;
 
-		int l = Math.min(len,uncompressed_size-uncompressed_offset);
-		System.arraycopy (uncompressed_buffer, uncompressed_offset, buf, off, l);
+		System.arraycopy (dictionary, bufferedPos(), buf, off, l);
+		uncompressed_offset += l;
+		return l;
+	}
+
+	public int read (ByteBuffer dst) throws IOException {
+		if (isClosed)
+			throw new IOException ("stream closed");
+
+		int l = Math.min(dst.remaining(), buffered());
+		if (l == 0)
+			return dst.hasRemaining() ? -1 : 0;
+
+		dst.put(dictionary, bufferedPos(), l);
 		uncompressed_offset += l;
 		return l;
 	}
 
+	public long transferTo (OutputStream out) throws IOException {
+		if (isClosed)
+			throw new IOException ("stream closed");
+
+		long transferred = 0;
+		for (int l = buffered(); l > 0; l = buffered()) {
+			out.write(dictionary, bufferedPos(), l);
+			uncompressed_offset += l;
+			transferred += l;
+		}
+		return transferred;
+	}
+
+	public long transferTo (WritableByteChannel out) throws IOException {
+		if (isClosed)
+			throw new IOException ("stream closed");
+
+		long transferred = 0;
+		for (int l = buffered(); l > 0; l = buffered()) {
+			ByteBuffer src = ByteBuffer.wrap(dictionary, bufferedPos(), l);
+			while (src.hasRemaining())
+				out.write(src);
+			uncompressed_offset += l;
+			transferred += l;
+		}
+		return transferred;
+	}
+
+	/*
+	 * Decodes and drops n bytes. The bytes only pass through the dictionary,
+	 * nothing is copied out.
+	 */
+	public long skip (long n) throws IOException {
+		if (isClosed)
+			throw new IOException ("stream closed");
+
+		return n > 0 ? discard(n) : 0;
+	}
+
+	private long discard(long n) throws IOException {
+		long done = 0;
+		while (done < n) {
+			if (uncompressed_offset == uncompressed_size)
+				nextBlock();
+			int l = uncompressed_size - uncompressed_offset;
+			if (l == 0)
+				break;
+			l = (int)Math.min(l, n - done);
+			uncompressed_offset += l;
+			done += l;
+		}
+		return done;
+	}
+
+	/*
+	 * Decoded bytes that can be read without decoding more.
+	 */
+	public int available () throws IOException {
+		if (isClosed)
+			throw new IOException ("stream closed");
+
+		return uncompressed_size - uncompressed_offset;
+	}
+
+	public boolean markSupported () {
+		return false;
+	}
+
+	public void mark (int readlimit) {
+	}
+
+	public void reset () throws IOException {
+		throw new IOException ("mark/reset not supported");
+	}
+
+	/*
+	 * Number of decoded bytes that can be copied out of the dictionary in one
+	 * go, decoding the next block first if the current one is used up.
+	 */
+	private int buffered() throws IOException {
+		if (uncompressed_offset == uncompressed_size)
+			nextBlock();
+		if (uncompressed_offset == uncompressed_size)
+			return 0;
+
+		int pos = bufferedPos();
+		return Math.min(uncompressed_size - uncompressed_offset, dictionarySize - pos);
+	}
+
+	private void nextBlock() throws IOException {
+		long start = System.nanoTime();
+		fill_buffer();
+		decodeNanos += System.nanoTime() - start;
+
+		if (uncompressed_offset < uncompressed_size) {
+			decodedBytes += uncompressed_size;
+			if (progressListener != null)
+				progressListener.blockDecoded(this);
+		}
+		if (outputDigest != null)
+			blockDecoded();
+	}
+
+	private void blockDecoded() throws IOException {
+		if (uncompressed_offset < uncompressed_size) {
+			outputDigest.update(dictionary, dictionarySize, uncompressed_start, uncompressed_size);
+		} else {
+			LzmaOutputDigest digest = outputDigest;
+			outputDigest = null;
+			digest.finish();
+		}
+	}
+
+	/*
+	 * Stops recording checkpoints and forgets the index, which both belong to
+	 * the stream being decoded until now.
+	 */
+	void dropCheckpoints() {
+		if (recording != null) {
+			recording.abort();
+			recording = null;
+		}
+		checkpointIndex = null;
+	}
+
+	void abortOutputDigest() {
+		if (outputDigest != null) {
+			outputDigest.abort();
+			outputDigest = null;
+		}
+	}
+
+	private int bufferedPos() {
+		int pos = uncompressed_start + uncompressed_offset;
+		if (pos >= dictionarySize)
+			pos -= dictionarySize;
+		return pos;
+	}
+
 	public void close () throws IOException {
 		isClosed = true;
+		if (recording != null) {
+			recording.abort();
+			recording = null;
+		}
+		abortOutputDigest();
 		super.close ();
 	}
 }
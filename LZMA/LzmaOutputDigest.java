@@ -0,0 +1,125 @@
+package LZMA;
+
+import java.io.InterruptedIOException;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/*
+ * SHA-256 of a decoder's output, computed on a thread of its own. Each
+ * decoded block is copied into one of a few spare buffers and queued, so the
+ * decoder only pays for the copy and goes on decoding while the previous
+ * blocks are hashed. The decoder waits only when every buffer is still
+ * queued, and at the end for the last blocks to be hashed.
+ */
+final class LzmaOutputDigest implements Runnable {
+	static final int kNumBuffers = 4;
+
+	private final MessageDigest digest;
+	private final byte [] expected;
+	private final ArrayBlockingQueue<byte []> free = new ArrayBlockingQueue<byte []>(kNumBuffers);
+	private final ArrayBlockingQueue<byte []> full = new ArrayBlockingQueue<byte []>(kNumBuffers + 1);
+	private final int [] lengths = new int[kNumBuffers];
+	private final byte [][] buffers = new byte[kNumBuffers][];
+	private final Thread thread;
+	private volatile RuntimeException failure;
+
+	private static final byte [] END = new byte[0];
+
+	LzmaOutputDigest (byte [] expected, int blockSize) throws LzmaException {
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new LzmaException ("LZMA : SHA-256 is not available");
+		}
+		if (expected.length != digest.getDigestLength())
+			throw new IllegalArgumentException("expected a SHA-256 digest, got " + expected.length + " bytes");
+		this.expected = expected.clone();
+
+		for (int i = 0; i < kNumBuffers; i++) {
+			buffers[i] = new byte[blockSize];
+			free.add(buffers[i]);
+		}
+
+		thread = new Thread(this, "LZMA output digest");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/*
+	 * Queues len bytes of the circular window starting at start. The window
+	 * wraps at windowSize, which is less than window.length when the decoder
+	 * came from a pool and kept a larger dictionary.
+	 */
+	void update (byte [] window, int windowSize, int start, int len) throws IOException {
+		checkFailure();
+
+		byte [] buffer = take(free);
+		int first = Math.min(len, windowSize - start);
+		System.arraycopy(window, start, buffer, 0, first);
+		System.arraycopy(window, 0, buffer, first, len - first);
+		lengths[indexOf(buffer)] = len;
+		full.add(buffer);
+	}
+
+	/*
+	 * Waits for the queued blocks to be hashed and compares the digest with
+	 * the expected one.
+	 */
+	void finish () throws IOException {
+		full.add(END);
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			thread.interrupt();
+			throw new InterruptedIOException("interrupted while waiting for the output digest");
+		}
+		checkFailure();
+
+		if (!MessageDigest.isEqual(digest.digest(), expected))
+			throw new LzmaException ("LZMA : SHA-256 of the decoded data does not match");
+	}
+
+	void abort () {
+		thread.interrupt();
+	}
+
+	public void run () {
+		try {
+			for (byte [] buffer = full.take(); buffer != END; buffer = full.take()) {
+				digest.update(buffer, 0, lengths[indexOf(buffer)]);
+				free.add(buffer);
+			}
+		} catch (InterruptedException e) {
+		} catch (RuntimeException e) {
+			failure = e;
+			// wake up a decoder waiting for a buffer
+			free.clear();
+			free.add(END);
+		}
+	}
+
+	private int indexOf (byte [] buffer) {
+		for (int i = 0; ; i++)
+			if (buffers[i] == buffer)
+				return i;
+	}
+
+	private byte [] take (ArrayBlockingQueue<byte []> queue) throws IOException {
+		try {
+			byte [] buffer = queue.take();
+			checkFailure();
+			return buffer;
+		} catch (InterruptedException e) {
+			thread.interrupt();
+			throw new InterruptedIOException("interrupted while waiting for the output digest");
+		}
+	}
+
+	private void checkFailure () {
+		if (failure != null)
+			throw failure;
+	}
+}
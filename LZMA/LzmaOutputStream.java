@@ -0,0 +1,416 @@
+package LZMA;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/*
+ * Writes the .lzma ("LZMA alone") format read by LzmaInputStream: a 13 byte
+ * header with the lc/lp/pb properties, dictionary size and uncompressed
+ * size, followed by the range coded stream.
+ *
+ * When the uncompressed size is given up front it is stored in the header
+ * (which also lets the decoder size its window to the output); otherwise the
+ * header says "unknown" and the stream ends with an end marker.
+ *
+ * Parsing is greedy with one step of lazy evaluation from level 2 up; the
+ * level also picks how hard the match finder searches and, unless one is
+ * given explicitly, which match finder is used and how big the dictionary is.
+ */
+public class LzmaOutputStream extends java.io.FilterOutputStream {
+	public static final int MATCH_FINDER_HASH_CHAIN  = 0;
+	public static final int MATCH_FINDER_BINARY_TREE = 1;
+
+	public static final int DEFAULT_LEVEL = 6;
+
+	private static final int [] LEVEL_DICTIONARY_SIZE = {
+		1 << 16, 1 << 18, 1 << 19, 1 << 20, 1 << 20, 1 << 21, 1 << 22, 1 << 23, 1 << 24, 1 << 25 };
+	private static final int [] LEVEL_NICE_LEN = { 16, 32, 32, 48, 64, 64, 64, 128, 273, 273 };
+	private static final int [] LEVEL_DEPTH    = { 4, 8, 12, 16, 24, 24, 32, 48, 64, 128 };
+
+	static final int kNumReps = 4;
+	static final int kMatchMinLen = LzmaInputStream.kMatchMinLen;
+	static final int kMatchMaxLen = MatchFinder.kMatchMaxLen;
+
+	// bytes of lookahead kept in the window while more input may still come
+	static final int kKeepAhead = kMatchMaxLen + 2;
+
+	boolean isFinished;
+	final MatchFinder matchFinder;
+	final CRangeEncoder RangeEncoder;
+	final int dictionarySize;
+	final int lc;
+	final int lp;
+	final int pb;
+	final boolean lazy;
+	final short [] probs;
+	final long expectedSize;
+
+	final int [] reps = new int[kNumReps];
+	int State;
+	int encodePos;
+	int ahead;
+	long GlobalPos;
+
+	// result of nextSymbol(): -1 for a literal, 0-3 for a rep match, otherwise
+	// kNumReps + the match distance - 1
+	int back;
+
+	public LzmaOutputStream (OutputStream out) throws IOException {
+		this(out, DEFAULT_LEVEL);
+	}
+
+	public LzmaOutputStream (OutputStream out, int level) throws IOException {
+		this(out, level, LEVEL_DICTIONARY_SIZE[checkLevel(level)], 3, 0, 2,
+		     level < 5 ? MATCH_FINDER_HASH_CHAIN : MATCH_FINDER_BINARY_TREE, -1);
+	}
+
+	public LzmaOutputStream (OutputStream out, int level, int dictionarySize,
+	                         int lc, int lp, int pb, int matchFinder) throws IOException {
+		this(out, level, dictionarySize, lc, lp, pb, matchFinder, -1);
+	}
+
+	/*
+	 * expectedSize is the exact number of bytes that will be written, or -1
+	 * when it is not known in advance.
+	 */
+	public LzmaOutputStream (OutputStream out, int level, int dictionarySize,
+	                         int lc, int lp, int pb, int matchFinder, long expectedSize) throws IOException {
+		super(out);
+
+		checkLevel(level);
+		if (lc < 0 || lc > 8 || lp < 0 || lp > 4 || pb < 0 || pb > 4)
+			throw new IllegalArgumentException("lc must be 0-8, lp and pb 0-4");
+		if (dictionarySize < (1 << 12) || dictionarySize > (1 << 29))
+			throw new IllegalArgumentException("dictionary size must be between 4 KB and 512 MB");
+		if (expectedSize < -1)
+			throw new IllegalArgumentException("expected size must be -1 or positive");
+
+		this.dictionarySize = dictionarySize;
+		this.lc = lc;
+		this.lp = lp;
+		this.pb = pb;
+		this.lazy = level >= 2;
+		this.expectedSize = expectedSize;
+
+		int niceLen = LEVEL_NICE_LEN[level];
+		int depth = LEVEL_DEPTH[level];
+		if (matchFinder == MATCH_FINDER_HASH_CHAIN)
+			this.matchFinder = new HashChainMatchFinder(dictionarySize, niceLen, depth);
+		else if (matchFinder == MATCH_FINDER_BINARY_TREE)
+			this.matchFinder = new BinaryTreeMatchFinder(dictionarySize, niceLen, depth);
+		else
+			throw new IllegalArgumentException("unknown match finder " + matchFinder);
+
+		this.probs = new short[LzmaInputStream.Literal + (LzmaInputStream.LZMA_LIT_SIZE << (lc + lp))];
+		for (int i = 0; i < probs.length; i++)
+			probs[i] = CRangeDecoder.kBitModelTotal >> 1;
+		for (int i = 0; i < kNumReps; i++)
+			reps[i] = 1;
+
+		writeHeader();
+		this.RangeEncoder = new CRangeEncoder(out);
+	}
+
+	private static int checkLevel(int level) {
+		if (level < 0 || level > 9)
+			throw new IllegalArgumentException("level must be 0-9");
+		return level;
+	}
+
+	private void writeHeader() throws IOException {
+		byte [] header = new byte[13];
+		header[0] = (byte)((pb * 5 + lp) * 9 + lc);
+		for (int i = 0; i < 4; i++)
+			header[1 + i] = (byte)(dictionarySize >>> (i * 8));
+		for (int i = 0; i < 8; i++)
+			header[5 + i] = (byte)(expectedSize >>> (i * 8));
+		out.write(header);
+	}
+
+	public void write (int b) throws IOException {
+		write(new byte[] { (byte)b }, 0, 1);
+	}
+
+	public void write (byte[] buf, int off, int len) throws IOException {
+		if (isFinished)
+			throw new IOException ("stream finished");
+		if ((off | len | (off + len) | (buf.length - (off + len))) < 0)
+			throw new IndexOutOfBoundsException();
+		if (expectedSize != -1 && GlobalPos + (matchFinder.writePos - encodePos) + len > expectedSize)
+			throw new LzmaException ("LZMA : more data written than the " + expectedSize + " bytes announced");
+
+		while (len > 0) {
+			int n = matchFinder.fill(buf, off, len);
+			off += n;
+			len -= n;
+
+			encode(false);
+
+			if (len > 0 && matchFinder.writePos == matchFinder.buf.length) {
+				int keepFrom = encodePos - dictionarySize;
+				matchFinder.moveWindow(keepFrom);
+				encodePos -= keepFrom;
+			}
+		}
+	}
+
+	/*
+	 * Encodes everything written so far and ends the stream without closing
+	 * the underlying one.
+	 */
+	public void finish () throws IOException {
+		if (isFinished)
+			return;
+		isFinished = true;
+
+		encode(true);
+		if (expectedSize == -1) {
+			encodeMatch(-1, kMatchMinLen, (int)GlobalPos & ((1 << pb) - 1));
+		} else if (GlobalPos != expectedSize) {
+			throw new LzmaException ("LZMA : " + GlobalPos + " bytes written, " + expectedSize + " announced");
+		}
+		RangeEncoder.flush();
+		out.flush();
+	}
+
+	public void close () throws IOException {
+		try {
+			finish();
+		} finally {
+			out.close();
+		}
+	}
+
+	private void encode(boolean finishing) throws IOException {
+		int limit = finishing ? 0 : kKeepAhead;
+		while (matchFinder.writePos - encodePos > limit) {
+			int posState = (int)GlobalPos & ((1 << pb) - 1);
+			int len = nextSymbol();
+
+			if (back == -1)
+				encodeLiteral(posState);
+			else if (back < kNumReps)
+				encodeRep(back, len, posState);
+			else
+				encodeMatch(back - kNumReps, len, posState);
+
+			encodePos += len;
+			ahead -= len;
+			GlobalPos += len;
+		}
+	}
+
+	private void encodeLiteral(int posState) throws IOException {
+		byte [] buf = matchFinder.buf;
+		int symbol = buf[encodePos] & 0xFF;
+		int previousbyte = GlobalPos == 0 ? 0 : buf[encodePos - 1] & 0xFF;
+		int literalPosMask = (1 << lp) - 1;
+		int ind_prob = LzmaInputStream.Literal + (LzmaInputStream.LZMA_LIT_SIZE *
+		               ((((int)GlobalPos & literalPosMask) << lc) + (previousbyte >> (8 - lc))));
+
+		RangeEncoder.BitEncode(probs, LzmaInputStream.IsMatch + (State << CRangeDecoder.kNumPosBitsMax) + posState, 0);
+		if (State >= 7)
+			RangeEncoder.LzmaLiteralEncodeMatch(probs, ind_prob, symbol, buf[encodePos - reps[0]] & 0xFF);
+		else
+			RangeEncoder.LzmaLiteralEncode(probs, ind_prob, symbol);
+
+		if (State < 4)
+			State = 0;
+		else if (State < 10)
+			State -= 3;
+		else
+			State -= 6;
+	}
+
+	/*
+	 * distance is 0-based here, as it is coded; -1 (0xFFFFFFFF) is the end
+	 * marker.
+	 */
+	private void encodeMatch(int distance, int len, int posState) throws IOException {
+		RangeEncoder.BitEncode(probs, LzmaInputStream.IsMatch + (State << CRangeDecoder.kNumPosBitsMax) + posState, 1);
+		RangeEncoder.BitEncode(probs, LzmaInputStream.IsRep + State, 0);
+		RangeEncoder.LzmaLenEncode(probs, LzmaInputStream.LenCoder, len - kMatchMinLen, posState);
+
+		int lenToPosState = Math.min(len - kMatchMinLen, LzmaInputStream.kNumLenToPosStates - 1);
+		int posSlot = getPosSlot(distance);
+		RangeEncoder.BitTreeEncode(probs, LzmaInputStream.PosSlot + (lenToPosState << LzmaInputStream.kNumPosSlotBits),
+		                           LzmaInputStream.kNumPosSlotBits, posSlot);
+
+		if (posSlot >= LzmaInputStream.kStartPosModelIndex) {
+			int numDirectBits = (posSlot >>> 1) - 1;
+			int base = (2 | (posSlot & 1)) << numDirectBits;
+			int reduced = distance - base;
+			if (posSlot < LzmaInputStream.kEndPosModelIndex) {
+				RangeEncoder.ReverseBitTreeEncode(probs, LzmaInputStream.SpecPos + base - posSlot - 1,
+				                                  numDirectBits, reduced);
+			} else {
+				RangeEncoder.EncodeDirectBits(reduced >>> LzmaInputStream.kNumAlignBits,
+				                              numDirectBits - LzmaInputStream.kNumAlignBits);
+				RangeEncoder.ReverseBitTreeEncode(probs, LzmaInputStream.Align, LzmaInputStream.kNumAlignBits,
+				                                  reduced & (LzmaInputStream.kAlignTableSize - 1));
+			}
+		}
+
+		reps[3] = reps[2];
+		reps[2] = reps[1];
+		reps[1] = reps[0];
+		reps[0] = distance + 1;
+		State = State < 7 ? 7 : 10;
+	}
+
+	private void encodeRep(int rep, int len, int posState) throws IOException {
+		RangeEncoder.BitEncode(probs, LzmaInputStream.IsMatch + (State << CRangeDecoder.kNumPosBitsMax) + posState, 1);
+		RangeEncoder.BitEncode(probs, LzmaInputStream.IsRep + State, 1);
+
+		if (rep == 0) {
+			RangeEncoder.BitEncode(probs, LzmaInputStream.IsRepG0 + State, 0);
+			RangeEncoder.BitEncode(probs, LzmaInputStream.IsRep0Long + (State << CRangeDecoder.kNumPosBitsMax) + posState,
+			                       len == 1 ? 0 : 1);
+		} else {
+			RangeEncoder.BitEncode(probs, LzmaInputStream.IsRepG0 + State, 1);
+			if (rep == 1) {
+				RangeEncoder.BitEncode(probs, LzmaInputStream.IsRepG1 + State, 0);
+			} else {
+				RangeEncoder.BitEncode(probs, LzmaInputStream.IsRepG1 + State, 1);
+				RangeEncoder.BitEncode(probs, LzmaInputStream.IsRepG2 + State, rep - 2);
+			}
+			int distance = reps[rep];
+			for (int i = rep; i > 0; i--)
+				reps[i] = reps[i - 1];
+			reps[0] = distance;
+		}
+
+		if (len == 1) {
+			State = State < 7 ? 9 : 11;
+		} else {
+			RangeEncoder.LzmaLenEncode(probs, LzmaInputStream.RepLenCoder, len - kMatchMinLen, posState);
+			State = State < 7 ? 8 : 11;
+		}
+	}
+
+	static int getPosSlot(int distance) {
+		if (distance >= 0 && distance < LzmaInputStream.kStartPosModelIndex)
+			return distance;
+		int n = 31 - Integer.numberOfLeadingZeros(distance);
+		return (n << 1) | ((distance >>> (n - 1)) & 1);
+	}
+
+	/*
+	 * Length of the match at pos against the data distance bytes back.
+	 */
+	private int matchLength(int pos, int distance, int limit) {
+		byte [] buf = matchFinder.buf;
+		int len = 0;
+		while (len < limit && buf[pos + len] == buf[pos + len - distance])
+			len++;
+		return len;
+	}
+
+	private static boolean changePair(int smallDist, int bigDist) {
+		return smallDist < (bigDist >>> 7);
+	}
+
+	/*
+	 * Picks the next symbol at encodePos, returning its length and leaving
+	 * its kind in back. The match finder runs up to two positions ahead
+	 * (ahead); it is advanced to the end of the chosen symbol before
+	 * returning, except when a literal is chosen after looking ahead, in
+	 * which case the matches already found for the next position are kept.
+	 */
+	private int nextSymbol() {
+		MatchFinder mf = matchFinder;
+		if (ahead == 0) {
+			mf.find();
+			ahead = 1;
+		}
+
+		back = -1;
+		int avail = Math.min(mf.writePos - encodePos, kMatchMaxLen);
+		if (avail < kMatchMinLen)
+			return 1;
+
+		int bestRepLen = 0;
+		int bestRepIndex = 0;
+		for (int rep = 0; rep < kNumReps; rep++) {
+			if (reps[rep] > GlobalPos)
+				continue;
+			int len = matchLength(encodePos, reps[rep], avail);
+			if (len >= mf.niceLen) {
+				mf.skip(len - ahead);
+				ahead = len;
+				back = rep;
+				return len;
+			}
+			if (len > bestRepLen) {
+				bestRepLen = len;
+				bestRepIndex = rep;
+			}
+		}
+
+		int mainLen = 0;
+		int mainDist = 0;
+		int count = mf.matchCount;
+		if (count > 0) {
+			mainLen = mf.matchLen[count - 1];
+			mainDist = mf.matchDist[count - 1];
+			if (mainLen >= mf.niceLen) {
+				mf.skip(mainLen - ahead);
+				ahead = mainLen;
+				back = kNumReps + mainDist - 1;
+				return mainLen;
+			}
+
+			// a slightly shorter match much closer by is cheaper to code
+			while (count > 1 && mainLen == mf.matchLen[count - 2] + 1) {
+				if (!changePair(mf.matchDist[count - 2], mainDist))
+					break;
+				count--;
+				mainLen = mf.matchLen[count - 1];
+				mainDist = mf.matchDist[count - 1];
+			}
+			if (mainLen == kMatchMinLen && mainDist > 0x80)
+				mainLen = 1;
+		}
+
+		if (bestRepLen >= kMatchMinLen && (bestRepLen + 1 >= mainLen
+		        || (bestRepLen + 2 >= mainLen && mainDist > (1 << 9))
+		        || (bestRepLen + 3 >= mainLen && mainDist > (1 << 15)))) {
+			mf.skip(bestRepLen - ahead);
+			ahead = bestRepLen;
+			back = bestRepIndex;
+			return bestRepLen;
+		}
+
+		if (mainLen < kMatchMinLen || avail <= kMatchMinLen)
+			return 1;
+
+		if (lazy) {
+			// see whether starting one byte later gives a better match
+			mf.find();
+			ahead = 2;
+
+			if (mf.matchCount > 0) {
+				int newLen = mf.matchLen[mf.matchCount - 1];
+				int newDist = mf.matchDist[mf.matchCount - 1];
+				if ((newLen >= mainLen && newDist < mainDist)
+				        || (newLen == mainLen + 1 && !changePair(mainDist, newDist))
+				        || newLen > mainLen + 1
+				        || (newLen + 1 >= mainLen && mainLen >= kMatchMinLen + 1 && changePair(newDist, mainDist)))
+					return 1;
+			}
+
+			int limit = Math.max(mainLen - 1, kMatchMinLen);
+			if (mf.writePos - (encodePos + 1) >= limit) {
+				for (int rep = 0; rep < kNumReps; rep++) {
+					if (reps[rep] <= GlobalPos + 1 && matchLength(encodePos + 1, reps[rep], limit) == limit)
+						return 1;
+				}
+			}
+		}
+
+		mf.skip(mainLen - ahead);
+		ahead = mainLen;
+		back = kNumReps + mainDist - 1;
+		return mainLen;
+	}
+}
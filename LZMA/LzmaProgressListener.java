@@ -0,0 +1,10 @@
+package LZMA;
+
+/*
+ * Told about every block an LzmaInputStream decodes, on the thread reading
+ * the stream. The stream's counters (output position and size, compressed
+ * bytes, decode time) are up to date when blockDecoded() is called.
+ */
+public interface LzmaProgressListener {
+	void blockDecoded (LzmaInputStream in);
+}
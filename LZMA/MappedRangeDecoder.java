@@ -0,0 +1,57 @@
+package LZMA;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/*
+ * Range decoder reading straight out of a buffer that holds the rest of the
+ * compressed stream, normally a memory-mapped file: no refill check and no
+ * copy into an intermediate array on the way to BitDecode.
+ */
+class MappedRangeDecoder extends CRangeDecoder {
+
+        ByteBuffer source;
+        final int origin;
+
+        MappedRangeDecoder( ByteBuffer source ) throws IOException {
+                this.source = source;
+                this.origin = source.position();
+                start();
+        }
+
+        long position() {
+                return source.position() - origin;
+        }
+
+        /*
+         * Goes back to the first byte of the stream.
+         */
+        void rewind() throws IOException {
+                source.position(origin);
+                start();
+        }
+
+        /*
+         * Continues decoding from a position and coder state recorded earlier.
+         */
+        void restore(long position, int range, int code) throws IOException {
+                if (position < 0 || position > source.limit() - origin)
+                        throw new LzmaException ("LZMA : Data Error");
+                source.position((int)(origin + position));
+                Range = range;
+                Code = code;
+        }
+
+        boolean isFinished() {
+                return Code == 0 && !source.hasRemaining();
+        }
+
+        int Readbyte() throws IOException {
+                try {
+                        return source.get() & 0xFF;
+                } catch (BufferUnderflowException e) {
+                        throw new LzmaException ("LZMA : Data Error");
+                }
+        }
+}
@@ -0,0 +1,106 @@
+package LZMA;
+
+/*
+ * Sliding window and match search shared by the encoder's match finders.
+ *
+ * Positions are stored in the hash and link tables as absolute positions
+ * (bufferOffset + index into buf), with 0 meaning "no entry", so the window
+ * can be shifted without touching the tables. cyclicPos indexes the link
+ * tables and advances with readPos, the next position to be searched.
+ */
+abstract class MatchFinder {
+	static final int kMatchMaxLen = 273;
+	static final int kHashBytes   = 3;
+
+	final byte [] buf;
+	final int dictionarySize;
+	final int cyclicSize;
+	final int niceLen;
+	final int depth;
+
+	final int [] head;
+	final int hashShift;
+
+	int bufferOffset = 1;
+	int readPos;
+	int writePos;
+	int cyclicPos;
+
+	final int [] matchLen  = new int[kMatchMaxLen + 1];
+	final int [] matchDist = new int[kMatchMaxLen + 1];
+	int matchCount;
+
+	MatchFinder(int dictionarySize, int niceLen, int depth) {
+		this.dictionarySize = dictionarySize;
+		this.cyclicSize = dictionarySize + 1;
+		this.niceLen = niceLen;
+		this.depth = depth;
+		this.buf = new byte[dictionarySize + Math.max(dictionarySize >>> 1, 1 << 16)];
+
+		int hashBits = 32 - Integer.numberOfLeadingZeros(dictionarySize - 1) - 1;
+		hashBits = Math.max(12, Math.min(20, hashBits));
+		this.head = new int[1 << hashBits];
+		this.hashShift = 32 - hashBits;
+	}
+
+	/*
+	 * Copies as much of b as fits behind the data already in the window.
+	 */
+	int fill(byte [] b, int off, int len) {
+		int n = Math.min(len, buf.length - writePos);
+		System.arraycopy(b, off, buf, writePos, n);
+		writePos += n;
+		return n;
+	}
+
+	/*
+	 * Drops everything before keepFrom from the window.
+	 */
+	void moveWindow(int keepFrom) {
+		System.arraycopy(buf, keepFrom, buf, 0, writePos - keepFrom);
+		writePos -= keepFrom;
+		readPos -= keepFrom;
+		bufferOffset += keepFrom;
+
+		if (bufferOffset > Integer.MAX_VALUE - buf.length) {
+			int norm = bufferOffset - 1;
+			normalize(head, norm);
+			normalizeLinks(norm);
+			bufferOffset -= norm;
+		}
+	}
+
+	static void normalize(int [] table, int norm) {
+		for (int i = 0; i < table.length; i++)
+			table[i] = table[i] <= norm ? 0 : table[i] - norm;
+	}
+
+	final int hash(int pos) {
+		int v = (buf[pos] & 0xFF) | ((buf[pos + 1] & 0xFF) << 8) | ((buf[pos + 2] & 0xFF) << 16);
+		return (v * 0x9E3779B1) >>> hashShift;
+	}
+
+	final void advance() {
+		readPos++;
+		if (++cyclicPos == cyclicSize)
+			cyclicPos = 0;
+	}
+
+	final int linkIndex(int delta) {
+		int index = cyclicPos - delta;
+		return index < 0 ? index + cyclicSize : index;
+	}
+
+	/*
+	 * Searches readPos for matches, leaving them in matchLen/matchDist in
+	 * order of increasing length (distances are 1-based), and moves on.
+	 */
+	abstract void find();
+
+	/*
+	 * Inserts count positions without collecting matches.
+	 */
+	abstract void skip(int count);
+
+	abstract void normalizeLinks(int norm);
+}
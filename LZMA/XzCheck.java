@@ -0,0 +1,105 @@
+package LZMA;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.CRC32;
+
+/*
+ * Integrity check of the .xz blocks in a stream: none, CRC32, CRC64 or
+ * SHA-256. The check types the format only reserves have a known size but no
+ * algorithm; their values are skipped instead of verified.
+ */
+final class XzCheck {
+	static final int CHECK_NONE   = 0x00;
+	static final int CHECK_CRC32  = 0x01;
+	static final int CHECK_CRC64  = 0x04;
+	static final int CHECK_SHA256 = 0x0A;
+
+	private static final int [] SIZES = { 0, 4, 4, 4, 8, 8, 8, 16, 16, 16, 32, 32, 32, 64, 64, 64 };
+
+	// CRC64_TABLE[s][b] is the CRC of b followed by s zero bytes, so four
+	// input bytes can be folded in per step
+	private static final long [][] CRC64_TABLE = new long[4][256];
+	static {
+		for (int s = 0; s < 4; s++) {
+			for (int b = 0; b < 256; b++) {
+				long r = s == 0 ? b : CRC64_TABLE[s - 1][b];
+				for (int j = 0; j < 8; j++)
+					r = (r >>> 1) ^ (0xC96C5795D7870F42L & -(r & 1));
+				CRC64_TABLE[s][b] = r;
+			}
+		}
+	}
+
+	final int type;
+	final int size;
+	private CRC32 crc32;
+	private long crc64 = -1;
+	private MessageDigest sha256;
+
+	XzCheck (int type) throws LzmaException {
+		if (type < 0 || type >= SIZES.length)
+			throw new LzmaException ("XZ : unknown check type " + type);
+		this.type = type;
+		this.size = SIZES[type];
+
+		if (type == CHECK_CRC32) {
+			crc32 = new CRC32();
+		} else if (type == CHECK_SHA256) {
+			try {
+				sha256 = MessageDigest.getInstance("SHA-256");
+			} catch (NoSuchAlgorithmException e) {
+				throw new LzmaException ("XZ : SHA-256 is not available");
+			}
+		}
+	}
+
+	static int sizeOf (int type) {
+		return SIZES[type];
+	}
+
+	void update (byte [] buf, int off, int len) {
+		if (type == CHECK_CRC32) {
+			crc32.update(buf, off, len);
+		} else if (type == CHECK_CRC64) {
+			long crc = crc64;
+			int end = off + len;
+			for (; off < end - 3; off += 4) {
+				int low = (int)crc;
+				crc = CRC64_TABLE[3][(low & 0xFF) ^ (buf[off] & 0xFF)]
+				      ^ CRC64_TABLE[2][((low >>> 8) & 0xFF) ^ (buf[off + 1] & 0xFF)]
+				      ^ CRC64_TABLE[1][((low >>> 16) & 0xFF) ^ (buf[off + 2] & 0xFF)]
+				      ^ CRC64_TABLE[0][(low >>> 24) ^ (buf[off + 3] & 0xFF)]
+				      ^ (crc >>> 32);
+			}
+			for (; off < end; off++)
+				crc = CRC64_TABLE[0][(int)(crc ^ buf[off]) & 0xFF] ^ (crc >>> 8);
+			crc64 = crc;
+		} else if (type == CHECK_SHA256) {
+			sha256.update(buf, off, len);
+		}
+	}
+
+	/*
+	 * The check value as it is stored after the block, or null when this check
+	 * type cannot be computed.
+	 */
+	byte [] value () {
+		if (type == CHECK_NONE)
+			return new byte[0];
+		if (type == CHECK_CRC32)
+			return littleEndian(crc32.getValue(), 4);
+		if (type == CHECK_CRC64)
+			return littleEndian(~crc64, 8);
+		if (type == CHECK_SHA256)
+			return sha256.digest();
+		return null;
+	}
+
+	static byte [] littleEndian(long value, int bytes) {
+		byte [] b = new byte[bytes];
+		for (int i = 0; i < bytes; i++)
+			b[i] = (byte)(value >>> (i * 8));
+		return b;
+	}
+}
@@ -0,0 +1,517 @@
+package LZMA;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+
+/*
+ * Reads the .xz container format with LZMA2 compressed blocks (LZMA2 being
+ * the only filter supported). Concatenated streams and stream padding are
+ * accepted, and the headers, the index and every block's check are verified.
+ *
+ * Blocks whose headers record both their compressed and uncompressed size,
+ * as multi-threaded xz writes them, are independent of each other: they are
+ * read ahead and decoded in parallel on a fork-join pool, then handed out in
+ * order. A block without sizes is decoded on the reading thread once the
+ * blocks before it have been consumed.
+ *
+ * memoryLimit bounds what the blocks in flight may hold: the compressed and
+ * the decoded block for blocks decoded in parallel, the dictionary window
+ * for the others. A block too large to be held in memory whole is decoded on
+ * the reading thread.
+ */
+public class XzInputStream extends InputStream {
+	static final byte [] HEADER_MAGIC = { (byte)0xFD, '7', 'z', 'X', 'Z', 0x00 };
+	static final byte [] FOOTER_MAGIC = { 'Y', 'Z' };
+	static final int kStreamHeaderSize = 12;
+	static final int kFilterLzma2 = 0x21;
+	static final int kMaxArraySize = Integer.MAX_VALUE - 8;
+
+	private static ForkJoinPool defaultPool;
+
+	private final InputStream in;
+	private final long memoryLimit;
+	private final ForkJoinPool pool;
+	private boolean isClosed;
+	private boolean endOfInput;
+	private final byte [] single = new byte[1];
+
+	private int checkType;
+	private long [] records = new long[32];
+	private int recordCount;
+
+	private Block nextBlock;
+	private final ArrayDeque<BlockDecoder> pending = new ArrayDeque<BlockDecoder>();
+	private long pendingMemory;
+
+	private byte [] output;
+	private int outputPos;
+	private long outputMemory;
+
+	private Block serialBlock;
+	private Lzma2InputStream serial;
+	private XzCheck serialCheck;
+
+	public XzInputStream (InputStream in) throws IOException {
+		this(in, Long.MAX_VALUE);
+	}
+
+	public XzInputStream (InputStream in, long memoryLimit) throws IOException {
+		this(in, memoryLimit, defaultPool());
+	}
+
+	public XzInputStream (InputStream in, long memoryLimit, ForkJoinPool pool) throws IOException {
+		this.in = in;
+		this.memoryLimit = memoryLimit;
+		this.pool = pool;
+
+		if (!readStreamHeader(true))
+			throw new LzmaException ("XZ : not an .xz stream");
+	}
+
+	/*
+	 * Pool shared by the streams not given one, with a thread per core. Its
+	 * threads are daemons and are not shut down.
+	 */
+	static synchronized ForkJoinPool defaultPool() {
+		if (defaultPool == null)
+			defaultPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+		return defaultPool;
+	}
+
+	public int read () throws IOException {
+		return read(single, 0, 1) == -1 ? -1 : single[0] & 0xFF;
+	}
+
+	public int read (byte[] buf, int off, int len) throws IOException {
+		if (isClosed)
+			throw new IOException ("stream closed");
+
+		if ((off | len | (off + len) | (buf.length - (off + len))) < 0) {
+			throw new IndexOutOfBoundsException();
+		}
+		if (len == 0)
+			return 0;
+
+		for (;;) {
+			if (output != null) {
+				int l = Math.min(len, output.length - outputPos);
+				if (l > 0) {
+					System.arraycopy(output, outputPos, buf, off, l);
+					outputPos += l;
+					return l;
+				}
+				output = null;
+			} else if (serial != null) {
+				int l = serial.read(buf, off, len);
+				if (l > 0) {
+					serialCheck.update(buf, off, l);
+					return l;
+				}
+				finishSerialBlock();
+			}
+
+			if (!nextBlock())
+				return -1;
+		}
+	}
+
+	public int available () throws IOException {
+		if (output != null)
+			return output.length - outputPos;
+		if (serial != null)
+			return serial.available();
+		return 0;
+	}
+
+	public void close () throws IOException {
+		if (isClosed)
+			return;
+		isClosed = true;
+
+		for (BlockDecoder task : pending)
+			task.cancel(false);
+		pending.clear();
+		output = null;
+		serial = null;
+		in.close();
+	}
+
+	/*
+	 * Moves on to the next block's output, keeping the pool busy with the
+	 * blocks after it; false at the end of the input.
+	 */
+	private boolean nextBlock() throws IOException {
+		pendingMemory -= outputMemory;
+		outputMemory = 0;
+
+		startBlocks();
+		BlockDecoder task = pending.poll();
+		if (task != null) {
+			task.join();
+			if (task.failure != null)
+				throw task.failure;
+			output = task.output;
+			outputPos = 0;
+			outputMemory = task.memory;
+			startBlocks();
+			return true;
+		}
+
+		if (nextBlock != null) {
+			startSerialBlock(nextBlock);
+			nextBlock = null;
+			return true;
+		}
+		return false;
+	}
+
+	/*
+	 * Reads ahead and submits blocks for parallel decoding while there are
+	 * idle threads and memory for them, stopping at a block that has to be
+	 * decoded on this thread.
+	 */
+	private void startBlocks() throws IOException {
+		for (;;) {
+			if (nextBlock == null) {
+				if (endOfInput)
+					return;
+				nextBlock = readBlockHeader();
+				if (nextBlock == null) {
+					endOfInput = true;
+					return;
+				}
+			}
+			if (!nextBlock.isParallel)
+				return;
+
+			long memory = nextBlock.memory();
+			if (pending.size() > pool.getParallelism())
+				return;
+			if (pendingMemory > 0 && pendingMemory + memory > memoryLimit)
+				return;
+
+			byte [] data = new byte[(int)(nextBlock.compressedSize + nextBlock.trailerSize())];
+			readFully(in, data, 0, data.length);
+
+			BlockDecoder task = new BlockDecoder(nextBlock, data, memory);
+			pool.execute(task);
+			pending.add(task);
+			pendingMemory += memory;
+			addRecord(nextBlock.unpaddedSize(nextBlock.compressedSize), nextBlock.uncompressedSize);
+			nextBlock = null;
+		}
+	}
+
+	private void startSerialBlock(Block block) throws IOException {
+		int windowSize = LzmaInputStream.windowSize(block.dictionarySize, block.uncompressedSize);
+		serial = new Lzma2InputStream(in, windowSize, block.uncompressedSize, memoryLimit);
+		serialCheck = new XzCheck(block.checkType);
+		serialBlock = block;
+	}
+
+	private void finishSerialBlock() throws IOException {
+		Block block = serialBlock;
+		long compressedSize = serial.inputCount;
+		if (block.compressedSize != -1 && block.compressedSize != compressedSize)
+			throw new LzmaException ("XZ : compressed size does not match the block header");
+
+		byte [] trailer = new byte[block.trailerSize(compressedSize)];
+		readFully(in, trailer, 0, trailer.length);
+		checkTrailer(trailer, 0, trailer.length, serialCheck);
+		addRecord(block.unpaddedSize(compressedSize), serial.GlobalNowPos);
+
+		serial = null;
+		serialCheck = null;
+		serialBlock = null;
+	}
+
+	/*
+	 * Verifies the block padding and the check value that follow a block.
+	 */
+	static void checkTrailer(byte [] trailer, int off, int len, XzCheck check) throws IOException {
+		int paddingSize = len - check.size;
+		for (int i = 0; i < paddingSize; i++)
+			if (trailer[off + i] != 0)
+				throw new LzmaException ("XZ : corrupted block padding");
+
+		byte [] value = check.value();
+		if (value != null && !Arrays.equals(value, Arrays.copyOfRange(trailer, off + paddingSize, off + len)))
+			throw new LzmaException ("XZ : block check failed");
+	}
+
+	private void addRecord(long unpaddedSize, long uncompressedSize) {
+		if (recordCount * 2 == records.length)
+			records = Arrays.copyOf(records, records.length * 2);
+		records[recordCount * 2] = unpaddedSize;
+		records[recordCount * 2 + 1] = uncompressedSize;
+		recordCount++;
+	}
+
+	/*
+	 * Reads the next block header, going through the index, the stream footer
+	 * and on into any concatenated stream; null at the end of the input.
+	 */
+	private Block readBlockHeader() throws IOException {
+		for (;;) {
+			int first = in.read();
+			if (first == -1)
+				throw new LzmaException ("XZ : unexpected end of input");
+			if (first != 0x00)
+				return readBlockHeader(first);
+
+			long indexSize = readIndex();
+			readStreamFooter(indexSize);
+			if (!readStreamHeader(false))
+				return null;
+		}
+	}
+
+	private Block readBlockHeader(int first) throws IOException {
+		int headerSize = (first + 1) * 4;
+		byte [] header = new byte[headerSize];
+		header[0] = (byte)first;
+		readFully(in, header, 1, headerSize - 1);
+
+		CRC32 crc = new CRC32();
+		crc.update(header, 0, headerSize - 4);
+		if ((int)crc.getValue() != getInt(header, headerSize - 4))
+			throw new LzmaException ("XZ : block header corrupted");
+
+		int flags = header[1] & 0xFF;
+		if ((flags & 0x3C) != 0)
+			throw new LzmaException ("XZ : unsupported block header options");
+
+		Block block = new Block();
+		block.headerSize = headerSize;
+		block.checkType = checkType;
+
+		InputStream fields = new ByteArrayInputStream(header, 2, headerSize - 6);
+		if ((flags & 0x40) != 0) {
+			block.compressedSize = readVli(fields);
+			if (block.compressedSize == 0)
+				throw new LzmaException ("XZ : block header corrupted");
+		}
+		if ((flags & 0x80) != 0)
+			block.uncompressedSize = readVli(fields);
+
+		int numFilters = (flags & 0x03) + 1;
+		long filterId = readVli(fields);
+		long propertiesSize = readVli(fields);
+		if (numFilters != 1 || filterId != kFilterLzma2 || propertiesSize != 1)
+			throw new LzmaException ("XZ : unsupported filter chain, only LZMA2 is supported");
+
+		int dictionaryBits = fields.read() & 0x3F;
+		if (dictionaryBits > 40)
+			throw new LzmaException ("XZ : block header corrupted");
+		block.dictionarySize = dictionaryBits == 40 ? 0xFFFFFFFFL
+		                       : (2L | (dictionaryBits & 1)) << (dictionaryBits / 2 + 11);
+
+		for (int b = fields.read(); b != -1; b = fields.read())
+			if (b != 0)
+				throw new LzmaException ("XZ : block header corrupted");
+
+		block.isParallel = block.compressedSize != -1 && block.uncompressedSize != -1
+		                   && block.compressedSize + block.trailerSize() <= kMaxArraySize
+		                   && block.uncompressedSize <= kMaxArraySize
+		                   && block.memory() <= memoryLimit;
+		return block;
+	}
+
+	/*
+	 * Reads the index, whose indicator byte has been read already, checking
+	 * it against the blocks seen, and returns its size.
+	 */
+	private long readIndex() throws IOException {
+		CheckedInputStream index = new CheckedInputStream(in, new CRC32());
+		index.getChecksum().update(0x00);
+
+		long count = readVli(index);
+		if (count != recordCount)
+			throw new LzmaException ("XZ : index does not match the blocks");
+
+		long size = 1 + vliSize(count);
+		for (int i = 0; i < recordCount; i++) {
+			long unpaddedSize = readVli(index);
+			long uncompressedSize = readVli(index);
+			if (unpaddedSize != records[i * 2] || uncompressedSize != records[i * 2 + 1])
+				throw new LzmaException ("XZ : index does not match the blocks");
+			size += vliSize(unpaddedSize) + vliSize(uncompressedSize);
+		}
+		for (; (size & 3) != 0; size++)
+			if (index.read() != 0x00)
+				throw new LzmaException ("XZ : index corrupted");
+
+		int expected = (int)index.getChecksum().getValue();
+		byte [] crc = new byte[4];
+		readFully(in, crc, 0, 4);
+		if (getInt(crc, 0) != expected)
+			throw new LzmaException ("XZ : index corrupted");
+
+		recordCount = 0;
+		return size + 4;
+	}
+
+	private void readStreamFooter(long indexSize) throws IOException {
+		byte [] footer = new byte[kStreamHeaderSize];
+		readFully(in, footer, 0, footer.length);
+
+		CRC32 crc = new CRC32();
+		crc.update(footer, 4, 6);
+		if ((int)crc.getValue() != getInt(footer, 0)
+		        || footer[10] != FOOTER_MAGIC[0] || footer[11] != FOOTER_MAGIC[1])
+			throw new LzmaException ("XZ : stream footer corrupted");
+		if (((getInt(footer, 4) & 0xFFFFFFFFL) + 1) * 4 != indexSize
+		        || footer[8] != 0 || footer[9] != checkType)
+			throw new LzmaException ("XZ : stream footer does not match the stream");
+	}
+
+	/*
+	 * Reads a stream header, skipping the stream padding before it unless it
+	 * is the first one; false if the input ends instead.
+	 */
+	private boolean readStreamHeader(boolean first) throws IOException {
+		byte [] header = new byte[kStreamHeaderSize];
+		do {
+			int n = readAtMost(in, header, 0, 4);
+			if (n == 0)
+				return false;
+			if (n < 4)
+				throw new LzmaException ("XZ : unexpected end of input");
+		} while (!first && getInt(header, 0) == 0);
+		readFully(in, header, 4, kStreamHeaderSize - 4);
+
+		for (int i = 0; i < HEADER_MAGIC.length; i++)
+			if (header[i] != HEADER_MAGIC[i])
+				throw new LzmaException ("XZ : not an .xz stream");
+
+		CRC32 crc = new CRC32();
+		crc.update(header, 6, 2);
+		if ((int)crc.getValue() != getInt(header, 8))
+			throw new LzmaException ("XZ : stream header corrupted");
+		if (header[6] != 0 || (header[7] & 0xF0) != 0)
+			throw new LzmaException ("XZ : unsupported stream flags");
+
+		checkType = header[7];
+		return true;
+	}
+
+	static long readVli(InputStream in) throws IOException {
+		long value = 0;
+		for (int i = 0; i < 9; i++) {
+			int b = in.read();
+			if (b == -1)
+				throw new LzmaException ("XZ : unexpected end of input");
+			if (b == 0x00 && i > 0)
+				throw new LzmaException ("XZ : corrupted variable length integer");
+			value |= (long)(b & 0x7F) << (i * 7);
+			if ((b & 0x80) == 0)
+				return value;
+		}
+		throw new LzmaException ("XZ : corrupted variable length integer");
+	}
+
+	static int vliSize(long value) {
+		int size = 1;
+		while ((value >>>= 7) != 0)
+			size++;
+		return size;
+	}
+
+	static int getInt(byte [] buf, int off) {
+		return (buf[off] & 0xFF) | (buf[off + 1] & 0xFF) << 8
+		       | (buf[off + 2] & 0xFF) << 16 | (buf[off + 3] & 0xFF) << 24;
+	}
+
+	static int readAtMost(InputStream in, byte [] buf, int off, int len) throws IOException {
+		int done = 0;
+		while (done < len) {
+			int n = in.read(buf, off + done, len - done);
+			if (n == -1)
+				break;
+			done += n;
+		}
+		return done;
+	}
+
+	static void readFully(InputStream in, byte [] buf, int off, int len) throws IOException {
+		if (readAtMost(in, buf, off, len) != len)
+			throw new LzmaException ("XZ : unexpected end of input");
+	}
+
+	static class Block {
+		int headerSize;
+		int checkType;
+		long compressedSize = -1;
+		long uncompressedSize = -1;
+		long dictionarySize;
+		boolean isParallel;
+
+		int trailerSize() {
+			return trailerSize(compressedSize);
+		}
+
+		/* block padding plus check */
+		int trailerSize(long compressedSize) {
+			return (int)(-compressedSize & 3) + XzCheck.sizeOf(checkType);
+		}
+
+		long unpaddedSize(long compressedSize) {
+			return headerSize + compressedSize + XzCheck.sizeOf(checkType);
+		}
+
+		/* what decoding this block in parallel holds in memory */
+		long memory() {
+			return compressedSize + trailerSize() + uncompressedSize
+			       + 2L * (LzmaInputStream.LZMA_BASE_SIZE + (LzmaInputStream.LZMA_LIT_SIZE << Lzma2InputStream.kMaxLcPlusLp))
+			       + Lzma2InputStream.kMaxPackedSize;
+		}
+	}
+
+	/*
+	 * Decodes one block on a pool thread. Failures are kept for the reading
+	 * thread to throw rather than thrown out of the pool.
+	 */
+	static class BlockDecoder extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		final Block block;
+		final long memory;
+		byte [] data;
+		byte [] output;
+		IOException failure;
+
+		BlockDecoder (Block block, byte [] data, long memory) {
+			this.block = block;
+			this.data = data;
+			this.memory = memory;
+		}
+
+		protected void compute() {
+			try {
+				int compressedSize = (int)block.compressedSize;
+				int uncompressedSize = (int)block.uncompressedSize;
+				Lzma2InputStream decoder = new Lzma2InputStream(new ByteArrayInputStream(data, 0, compressedSize),
+				                                                uncompressedSize, uncompressedSize, Long.MAX_VALUE);
+				byte [] decoded = decoder.decodeFully();
+				if (decoder.inputCount != compressedSize)
+					throw new LzmaException ("XZ : compressed size does not match the block header");
+
+				XzCheck check = new XzCheck(block.checkType);
+				check.update(decoded, 0, decoded.length);
+				checkTrailer(data, compressedSize, data.length - compressedSize, check);
+				output = decoded;
+			} catch (IOException e) {
+				failure = e;
+			} finally {
+				data = null;
+			}
+		}
+	}
+}
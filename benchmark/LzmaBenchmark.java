@@ -0,0 +1,189 @@
+package benchmark;
+
+import LZMA.LzmaInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Properties;
+
+/*
+ * Decoder benchmark over the checked-in corpora in benchmark/corpus: text,
+ * class files, random, highly repetitive and short-period data, each
+ * compressed with several lc/lp/pb and dictionary settings. Every file is
+ * first decoded once and checked against digests.properties (which also
+ * covers the bulk match copy paths, including matches that wrap around the
+ * 64 KB dictionary), then timed for throughput, bytes allocated per decoded
+ * MB and time to the first decoded byte. With "verify" each file is also
+ * timed with LzmaInputStream.verifyOutput() on, to show what hashing the
+ * output on the second thread costs.
+ *
+ * Run from the repository root after compiling:
+ *   java -cp . benchmark.LzmaBenchmark [corpus dir] [iterations] [verify]
+ */
+public class LzmaBenchmark {
+	private static final int WARMUP_ITERATIONS = 20;
+
+	private static final OutputStream SINK = new OutputStream() {
+		public void write(int b) {
+		}
+
+		public void write(byte[] b, int off, int len) {
+		}
+	};
+
+	public static void main(String[] args) throws Exception {
+		File corpus = new File(args.length > 0 ? args[0] : "benchmark/corpus");
+		int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+		boolean verify = args.length > 2 && args[2].equals("verify");
+
+		Properties digests = new Properties();
+		InputStream digestInput = new FileInputStream(new File(corpus, "digests.properties"));
+		try {
+			digests.load(digestInput);
+		} finally {
+			digestInput.close();
+		}
+
+		String[] names = digests.keySet().toArray(new String[0]);
+		Arrays.sort(names);
+
+		byte[][] corpora = new byte[names.length][];
+		byte[][] outputDigests = new byte[names.length][];
+		for (int n = 0; n < names.length; n++) {
+			corpora[n] = readFully(new File(corpus, names[n]));
+
+			outputDigests[n] = sha256(corpora[n]);
+			String digest = String.format("%1$064x", new BigInteger(1, outputDigests[n]));
+			if (!digest.equals(digests.getProperty(names[n])))
+				throw new IllegalStateException(names[n] + " decoded to " + digest + ", expected " + digests.getProperty(names[n]));
+		}
+
+		// warm up on every corpus before timing any, so the first one is not
+		// measured against a cold JIT
+		for (int i = 0; i < WARMUP_ITERATIONS; i++)
+			for (byte[] packed : corpora)
+				decode(packed, null, null);
+		if (verify)
+			for (int i = 0; i < WARMUP_ITERATIONS; i++)
+				for (int n = 0; n < names.length; n++)
+					decode(corpora[n], null, outputDigests[n]);
+
+		System.out.println(String.format("%-26s %10s %10s %12s %10s", "corpus", "output KB", "MB/s", "alloc B/MB", "TTFB us")
+		                   + (verify ? String.format(" %12s %9s", "verified MB/s", "overhead") : ""));
+		for (int n = 0; n < names.length; n++) {
+			String name = names[n];
+			byte[] packed = corpora[n];
+
+			long[] decodeNanos = new long[iterations];
+			long[] firstByteNanos = new long[iterations];
+			long allocated = 0;
+			long produced = 0;
+			for (int i = 0; i < iterations; i++) {
+				long before = allocatedBytes();
+				long start = System.nanoTime();
+				long[] firstByte = new long[1];
+				produced = decode(packed, firstByte, null);
+				decodeNanos[i] = System.nanoTime() - start;
+				firstByteNanos[i] = firstByte[0] - start;
+				allocated += allocatedBytes() - before;
+			}
+
+			double seconds = median(decodeNanos) / 1e9;
+			double megabytes = produced / (1024.0 * 1024.0);
+			String line = String.format("%-26s %10d %10.1f %12d %10d",
+			                            name.substring(0, name.length() - 5),
+			                            produced / 1024,
+			                            megabytes / seconds,
+			                            allocated < 0 || produced == 0 ? -1 : (long)(allocated / iterations / megabytes),
+			                            median(firstByteNanos) / 1000);
+
+			if (verify) {
+				long[] verifiedNanos = new long[iterations];
+				for (int i = 0; i < iterations; i++) {
+					long start = System.nanoTime();
+					decode(packed, null, outputDigests[n]);
+					verifiedNanos[i] = System.nanoTime() - start;
+				}
+				double verifiedSeconds = median(verifiedNanos) / 1e9;
+				line += String.format(" %13.1f %8.1f%%", megabytes / verifiedSeconds, (verifiedSeconds / seconds - 1) * 100);
+			}
+			System.out.println(line);
+		}
+	}
+
+	private static long decode(byte[] packed, long[] firstByte, byte[] outputDigest) throws IOException {
+		LzmaInputStream in = new LzmaInputStream(new ByteArrayInputStream(packed));
+		try {
+			if (outputDigest != null)
+				in.verifyOutput(outputDigest);
+			byte[] one = new byte[1];
+			if (in.read(one, 0, 1) < 1)
+				return 0;
+			if (firstByte != null)
+				firstByte[0] = System.nanoTime();
+			return 1 + in.transferTo(SINK);
+		} finally {
+			in.close();
+		}
+	}
+
+	private static byte[] sha256(byte[] packed) throws Exception {
+		final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+		LzmaInputStream in = new LzmaInputStream(new ByteArrayInputStream(packed));
+		try {
+			in.transferTo(new OutputStream() {
+				public void write(int b) {
+					digest.update((byte)b);
+				}
+
+				public void write(byte[] b, int off, int len) {
+					digest.update(b, off, len);
+				}
+			});
+		} finally {
+			in.close();
+		}
+		return digest.digest();
+	}
+
+	/*
+	 * Bytes allocated so far by this thread, or -1 when the JVM does not
+	 * expose per-thread allocation counters.
+	 */
+	private static long allocatedBytes() {
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean)
+			return ((com.sun.management.ThreadMXBean)bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+		return -1;
+	}
+
+	private static long median(long[] values) {
+		long[] sorted = values.clone();
+		Arrays.sort(sorted);
+		return sorted[sorted.length / 2];
+	}
+
+	private static byte[] readFully(File file) throws IOException {
+		byte[] data = new byte[(int)file.length()];
+		InputStream in = new FileInputStream(file);
+		try {
+			int off = 0;
+			while (off < data.length) {
+				int read = in.read(data, off, data.length - off);
+				if (read < 0)
+					throw new IOException("Unexpected end of " + file);
+				off += read;
+			}
+		} finally {
+			in.close();
+		}
+		return data;
+	}
+}
@@ -0,0 +1,225 @@
+package benchmark;
+
+import LZMA.LzmaDecoderPool;
+import LZMA.LzmaInputStream;
+import LZMA.LzmaOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+
+/*
+ * Decoder checks that fail loudly instead of timing anything: every check
+ * that goes wrong is printed and the run exits with status 1, so it can gate
+ * a build.
+ *
+ * Each file of the benchmark corpus is decoded with the byte by byte match
+ * copy the decoder started with and with the bulk copies, through
+ * transferTo(), small reads, a memory-mapped file and a pooled decoder with
+ * a larger dictionary than the file needs and its output verified, and every
+ * result has to match digests.properties.
+ *
+ * Run from the repository root after compiling:
+ *   java -cp . benchmark.LzmaDecodeCheck [corpus dir]
+ */
+public class LzmaDecodeCheck {
+	private static final List<String> failures = new ArrayList<String>();
+
+	public static void main(String[] args) throws Exception {
+		File corpus = new File(args.length > 0 ? args[0] : "benchmark/corpus");
+
+		checkPooledOversizedVerify();
+		checkCorpus(corpus);
+
+		if (!failures.isEmpty()) {
+			for (String failure : failures)
+				System.out.println("FAILED " + failure);
+			System.exit(1);
+		}
+		System.out.println("all checks passed");
+	}
+
+	/*
+	 * A pooled decoder keeps the dictionary of the largest stream it has
+	 * decoded, so a later stream with a smaller window wraps before the end of
+	 * the array. Its verified output still has to match.
+	 */
+	private static void checkPooledOversizedVerify() throws Exception {
+		Random random = new Random(18);
+		byte [] data = new byte[1 << 20];
+		for (int i = 0; i < data.length; i++)
+			data[i] = (byte)('a' + random.nextInt(8));
+		byte [] large = encode(data, 1 << 20);
+		byte [] small = encode(data, 96 << 10);
+
+		LzmaDecoderPool pool = new LzmaDecoderPool(1);
+		LzmaInputStream decoder = pool.acquire(new ByteArrayInputStream(large));
+		decoder.transferTo(new ByteArrayOutputStream());
+		pool.release(decoder);
+
+		decoder = pool.acquire(new ByteArrayInputStream(small));
+		decoder.verifyOutput(MessageDigest.getInstance("SHA-256").digest(data));
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try {
+			decoder.transferTo(out);
+			check("pooled 96 KB window after a 1 MB one", Arrays.equals(out.toByteArray(), data));
+		} catch (IOException e) {
+			check("pooled 96 KB window after a 1 MB one: " + e, false);
+		}
+	}
+
+	private static void checkCorpus(File corpus) throws Exception {
+		Properties digests = new Properties();
+		InputStream digestInput = new FileInputStream(new File(corpus, "digests.properties"));
+		try {
+			digests.load(digestInput);
+		} finally {
+			digestInput.close();
+		}
+		String[] names = digests.keySet().toArray(new String[0]);
+		Arrays.sort(names);
+
+		// leaves an idle decoder with a 4 MB window and room for lc + lp = 8 in the pool
+		final LzmaDecoderPool pool = new LzmaDecoderPool(1);
+		byte [] filler = new byte[4 << 20];
+		for (int i = 0; i < filler.length; i++)
+			filler[i] = (byte)(i % 251);
+		ByteArrayOutputStream packedFiller = new ByteArrayOutputStream();
+		LzmaOutputStream encoder = new LzmaOutputStream(packedFiller, 1, filler.length, 4, 4, 2,
+		                                                LzmaOutputStream.MATCH_FINDER_HASH_CHAIN, filler.length);
+		encoder.write(filler);
+		encoder.close();
+		LzmaInputStream pooled = pool.acquire(new ByteArrayInputStream(packedFiller.toByteArray()));
+		pooled.transferTo(new ByteArrayOutputStream());
+		pool.release(pooled);
+
+		final byte [] empty = encode(new byte[0], 1 << 12);
+		for (String name : names) {
+			final File file = new File(corpus, name);
+			final byte [] packed = readFully(file);
+			final String expected = digests.getProperty(name);
+
+			checkDigest(name + ", byte by byte copies", false, expected, new Decode() {
+				LzmaInputStream open() throws IOException {
+					// constructed on an empty stream so that no block is decoded with the bulk copies
+					LzmaInputStream in = new LzmaInputStream(new ByteArrayInputStream(empty));
+					in.setReferenceMatchCopy(true);
+					in.reset(new ByteArrayInputStream(packed));
+					return in;
+				}
+			});
+			checkDigest(name + ", transferTo", false, expected, new Decode() {
+				LzmaInputStream open() throws IOException {
+					return new LzmaInputStream(new ByteArrayInputStream(packed));
+				}
+			});
+			checkDigest(name + ", small reads", true, expected, new Decode() {
+				LzmaInputStream open() throws IOException {
+					return new LzmaInputStream(new ByteArrayInputStream(packed));
+				}
+			});
+			checkDigest(name + ", mapped", false, expected, new Decode() {
+				LzmaInputStream open() throws IOException {
+					return new LzmaInputStream(file.toPath());
+				}
+			});
+			checkDigest(name + ", pooled oversized decoder, verified", false, expected, new Decode() {
+				LzmaInputStream open() throws IOException {
+					LzmaInputStream in = pool.acquire(new ByteArrayInputStream(packed));
+					in.verifyOutput(fromHex(expected));
+					return in;
+				}
+
+				void done(LzmaInputStream in) {
+					pool.release(in);
+				}
+			});
+		}
+	}
+
+	private abstract static class Decode {
+		abstract LzmaInputStream open() throws IOException;
+
+		void done(LzmaInputStream in) {
+		}
+	}
+
+	private static void checkDigest(String name, boolean smallReads, String expected, Decode decode) {
+		try {
+			final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			LzmaInputStream in = decode.open();
+			try {
+				if (smallReads) {
+					byte [] buf = new byte[1000];
+					for (int n; (n = in.read(buf, 0, buf.length)) != -1; )
+						digest.update(buf, 0, n);
+				} else {
+					in.transferTo(new OutputStream() {
+						public void write(int b) {
+							digest.update((byte)b);
+						}
+
+						public void write(byte[] b, int off, int len) {
+							digest.update(b, off, len);
+						}
+					});
+				}
+			} finally {
+				in.close();
+				decode.done(in);
+			}
+			String actual = String.format("%1$064x", new BigInteger(1, digest.digest()));
+			check(name + " decoded to " + actual + ", expected " + expected, actual.equals(expected));
+		} catch (Exception e) {
+			check(name + ": " + e, false);
+		}
+	}
+
+	private static byte [] fromHex(String hex) {
+		byte [] bytes = new byte[hex.length() / 2];
+		for (int i = 0; i < bytes.length; i++)
+			bytes[i] = (byte)Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+		return bytes;
+	}
+
+	private static byte [] readFully(File file) throws IOException {
+		byte [] data = new byte[(int)file.length()];
+		InputStream in = new FileInputStream(file);
+		try {
+			int off = 0;
+			while (off < data.length) {
+				int read = in.read(data, off, data.length - off);
+				if (read < 0)
+					throw new IOException("Unexpected end of " + file);
+				off += read;
+			}
+		} finally {
+			in.close();
+		}
+		return data;
+	}
+
+	static byte [] encode(byte [] data, int dictionarySize) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		LzmaOutputStream encoder = new LzmaOutputStream(out, 1, dictionarySize, 3, 0, 2,
+		                                                LzmaOutputStream.MATCH_FINDER_HASH_CHAIN, data.length);
+		encoder.write(data);
+		encoder.close();
+		return out.toByteArray();
+	}
+
+	private static void check(String name, boolean passed) {
+		if (!passed)
+			failures.add(name);
+	}
+}
@@ -1,12 +1,16 @@
 package net.minecraft.bootstrap;
 
 import LZMA.LzmaInputStream;
+import LZMA.LzmaProgressListener;
 import java.awt.Font;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -15,6 +19,7 @@ import java.lang.reflect.Constructor;
 import java.math.BigInteger;
 import java.net.Authenticator;
 import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
 import java.net.PasswordAuthentication;
 import java.net.Proxy;
 import java.net.URL;
@@ -23,9 +28,14 @@ import java.nio.channels.FileChannel;
 import java.security.DigestInputStream;
 import java.security.MessageDigest;
 import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.TimeUnit;
 import java.util.jar.JarOutputStream;
 import java.util.jar.Pack200;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
 import javax.swing.JFrame;
 import javax.swing.JScrollBar;
 import javax.swing.JScrollPane;
@@ -43,16 +53,31 @@ import joptsimple.OptionSpec;
 public class Bootstrap extends JFrame
 {
   private static final Font MONOSPACED = new Font("Monospaced", 0, 12);
+  public static final String LAUNCHER_CLASS = "net.minecraft.launcher.Launcher";
   public static final String LAUNCHER_URL = "https://s3.amazonaws.com/Minecraft.Download/launcher/launcher.pack.lzma";
   private final File workDir;
   private final Proxy proxy;
   private final File launcherJar;
+  private final File launcherJarNew;
+  private final File launcherJarMemory;
+  private final Object installLock = new Object();
   private final File packedLauncherJar;
   private final File packedLauncherJarNew;
   private final JTextArea textArea;
   private final JScrollPane scrollPane;
   private final PasswordAuthentication proxyAuth;
   private final String[] remainderArgs;
+  private int downloadConnections = 1;
+  private boolean streamUnpack;
+  private boolean launchStale;
+  private boolean inMemoryLaunch;
+  private boolean offHeapLaunch;
+  private boolean storedJar;
+  private boolean parallelDeflate;
+  private long digestVerifyInterval = TimeUnit.HOURS.toMillis(24L);
+  private DigestCache digestCache;
+  private long lzmaMemoryLimit = Long.MAX_VALUE;
+  private static final int UNPACK_BUFFER_SIZE = 65536;
 
   public Bootstrap(File workDir, Proxy proxy, PasswordAuthentication proxyAuth, String[] remainderArgs)
   {
@@ -62,6 +87,8 @@ public class Bootstrap extends JFrame
     this.proxyAuth = proxyAuth;
     this.remainderArgs = remainderArgs;
     this.launcherJar = new File(workDir, "launcher.jar");
+    this.launcherJarNew = new File(workDir, "launcher.jar.new");
+    this.launcherJarMemory = new File(workDir, "launcher.jar.mem");
     this.packedLauncherJar = new File(workDir, "launcher.pack.lzma");
     this.packedLauncherJarNew = new File(workDir, "launcher.pack.lzma.new");
 
@@ -85,16 +112,72 @@ public class Bootstrap extends JFrame
     println("Bootstrap started");
   }
  
+  public void setDownloadConnections(int downloadConnections) {
+    this.downloadConnections = Math.max(1, downloadConnections);
+  }
+
+  public void setStreamUnpack(boolean streamUnpack) {
+    this.streamUnpack = streamUnpack;
+  }
+
+  public void setLaunchStale(boolean launchStale) {
+    this.launchStale = launchStale;
+  }
+
+  public void setInMemoryLaunch(boolean inMemoryLaunch) {
+    this.inMemoryLaunch = inMemoryLaunch;
+  }
+
+  public void setOffHeapLaunch(boolean offHeapLaunch) {
+    this.offHeapLaunch = offHeapLaunch;
+  }
+
+  public void setStoredJar(boolean storedJar) {
+    this.storedJar = storedJar;
+  }
+
+  public void setParallelDeflate(boolean parallelDeflate) {
+    this.parallelDeflate = parallelDeflate;
+  }
+
+  public void setDigestVerifyInterval(long digestVerifyInterval) {
+    this.digestVerifyInterval = digestVerifyInterval;
+  }
+
+  public void setLzmaMemoryLimit(long lzmaMemoryLimit) {
+    this.lzmaMemoryLimit = lzmaMemoryLimit > 0L ? lzmaMemoryLimit : Long.MAX_VALUE;
+  }
+
+  public long getLzmaMemoryLimit() {
+    return this.lzmaMemoryLimit;
+  }
+
   public void execute(boolean force) {
-    if (this.packedLauncherJarNew.isFile()) {
+    boolean appliedUpdate = false;
+
+    if ((this.launcherJarNew.exists()) && (!this.launcherJarNew.delete())) {
+      println("Unable to remove stale " + this.launcherJarNew);
+    }
+    if ((this.launcherJarMemory.exists()) && (!this.launcherJarMemory.delete())) {
+      println("Unable to remove stale " + this.launcherJarMemory);
+    }
+
+    if (Downloader.getProgressFile(this.packedLauncherJarNew).isFile()) {
+      println("Found partial update, it will be resumed or downloaded again");
+    } else if (this.packedLauncherJarNew.isFile()) {
       println("Found cached update");
       renameNew();
+      appliedUpdate = true;
     }
 
     Downloader.Controller controller = new Downloader.Controller();
+    boolean waitedForDownload = false;
 
     if ((force) || (!this.packedLauncherJar.exists())) {
-      Downloader downloader = new Downloader(controller, this, this.proxy, null, this.packedLauncherJarNew);
+      Downloader downloader = new Downloader(controller, this, this.proxy, null, this.packedLauncherJarNew, this.downloadConnections);
+      if (this.streamUnpack) {
+        downloader.setStreamingUnpacker(new StreamingUnpacker(this, this.launcherJarNew));
+      }
       downloader.run();
 
       if (controller.hasDownloadedLatch.getCount() != 0L) {
@@ -102,10 +185,25 @@ public class Bootstrap extends JFrame
       }
 
       renameNew();
+      waitedForDownload = true;
+    } else if ((this.launchStale) && (!appliedUpdate) && (isUnpackCurrent())) {
+      String md5 = getCachedMd5(this.packedLauncherJar);
+
+      Thread thread = new Thread(new Downloader(controller, this, this.proxy, md5, this.packedLauncherJarNew, this.downloadConnections));
+      thread.setName("Launcher downloader");
+      thread.start();
+
+      println("Starting cached launcher, any update will be applied on the next start");
+      startLauncher(this.launcherJar);
+      return;
     } else {
-      String md5 = getMd5(this.packedLauncherJar);
+      String md5 = getCachedMd5(this.packedLauncherJar);
 
-      Thread thread = new Thread(new Downloader(controller, this, this.proxy, md5, this.packedLauncherJarNew));
+      Downloader downloader = new Downloader(controller, this, this.proxy, md5, this.packedLauncherJarNew, this.downloadConnections);
+      if (this.streamUnpack) {
+        downloader.setStreamingUnpacker(new StreamingUnpacker(this, this.launcherJarNew));
+      }
+      Thread thread = new Thread(downloader);
       thread.setName("Launcher downloader");
       thread.start();
       try
@@ -117,6 +215,7 @@ public class Bootstrap extends JFrame
           println("Found update in time, waiting to download");
           controller.hasDownloadedLatch.await();
           renameNew();
+          waitedForDownload = true;
         } else if (!wasInTime) {
           println("Didn't find an update in time.");
         }
@@ -125,49 +224,396 @@ public class Bootstrap extends JFrame
       }
     }
 
-    unpack();
+    if ((waitedForDownload) && (controller.hasUnpacked.get()) && (installUnpacked(this.launcherJarNew, null))) {
+      println("Launcher was unpacked from " + this.packedLauncherJar + " while downloading");
+    } else if ((!waitedForDownload) && (isUnpackCurrent())) {
+      println("Launcher is already unpacked from " + this.packedLauncherJar);
+    } else if (this.inMemoryLaunch) {
+      startLauncher(unpackToMemory());
+      return;
+    } else {
+      unpack();
+    }
     startLauncher(this.launcherJar);
   }
+
+  // Moves an unpacked jar over launcher.jar and stamps it. The lock keeps the background writer of an in-memory launch from installing at
+  // the same time as this thread, and a jar unpacked from any pack but the current one (packMd5, when known) is dropped.
+  private boolean installUnpacked(File unpacked, String packMd5) {
+    synchronized (this.installLock) {
+      if ((packMd5 != null) && (!packMd5.equals(getCachedMd5(this.packedLauncherJar)))) {
+        println("Dropping " + unpacked + ", it was unpacked from a different pack");
+        unpacked.delete();
+        return false;
+      }
+      if (!renameUnpacked(unpacked)) {
+        return false;
+      }
+      writeUnpackStamp();
+      return true;
+    }
+  }
+
+  private boolean renameUnpacked(File unpacked) {
+    println("Moving " + unpacked + " to " + this.launcherJar);
+
+    if ((this.launcherJar.exists()) && (!this.launcherJar.delete())) {
+      println("Unable to remove old " + this.launcherJar + ", unpacking again.");
+      return false;
+    }
+    if (!unpacked.renameTo(this.launcherJar)) {
+      try {
+        copyFile(unpacked, this.launcherJar);
+        unpacked.delete();
+      } catch (IOException e) {
+        println("Unable to move unpacked launcher: " + e + ", unpacking again.");
+        return false;
+      }
+    }
+    return true;
+  }
  
+  private File getUnpackStampFile() {
+    return new File(this.launcherJar.getPath() + ".stamp");
+  }
+
+  private boolean isUnpackCurrent() {
+    File stampFile = getUnpackStampFile();
+    if ((!stampFile.isFile()) || (!this.launcherJar.isFile())) {
+      return false;
+    }
+
+    Properties stamp = new Properties();
+    FileInputStream inputStream = null;
+    try {
+      inputStream = new FileInputStream(stampFile);
+      stamp.load(inputStream);
+    } catch (IOException e) {
+      return false;
+    } finally {
+      closeSilently(inputStream);
+    }
+
+    if ((!Long.toString(this.launcherJar.length()).equals(stamp.getProperty("jar.size"))) || (!Long.toString(this.launcherJar.lastModified()).equals(stamp.getProperty("jar.modified")))) {
+      return false;
+    }
+
+    String md5 = getCachedMd5(this.packedLauncherJar);
+    return (md5 != null) && (md5.equals(stamp.getProperty("pack.md5")));
+  }
+
+  private File getUnpackManifestFile() {
+    return Downloader.getManifestFile(this.packedLauncherJar);
+  }
+
+  private byte[] getManifestDigest() {
+    File manifestFile = getUnpackManifestFile();
+    if (!manifestFile.isFile()) {
+      return null;
+    }
+
+    Properties manifest = new Properties();
+    FileInputStream inputStream = null;
+    try {
+      inputStream = new FileInputStream(manifestFile);
+      manifest.load(inputStream);
+    } catch (IOException e) {
+      println("Unable to read " + manifestFile + ": " + e);
+      return null;
+    } finally {
+      closeSilently(inputStream);
+    }
+
+    String md5 = getCachedMd5(this.packedLauncherJar);
+    if ((md5 == null) || (!md5.equalsIgnoreCase(manifest.getProperty("pack.md5")))) {
+      println("Ignoring " + manifestFile + ", it describes a different pack");
+      return null;
+    }
+
+    byte[] digest = parseSha256(manifest.getProperty("unpacked.sha256"));
+    if (digest == null) {
+      println("Ignoring " + manifestFile + ", unpacked.sha256 is not a SHA-256 digest");
+    }
+    return digest;
+  }
+
+  // Reads a SHA-256 digest written in hex, or returns null when the text is not one.
+  static byte[] parseSha256(String sha256) {
+    if ((sha256 == null) || (!sha256.matches("[0-9a-fA-F]{64}"))) {
+      return null;
+    }
+
+    byte[] digest = new byte[32];
+    for (int i = 0; i < digest.length; i++) {
+      digest[i] = (byte)Integer.parseInt(sha256.substring(i * 2, i * 2 + 2), 16);
+    }
+    return digest;
+  }
+
+  private void writeUnpackStamp() {
+    File stampFile = getUnpackStampFile();
+    String md5 = getCachedMd5(this.packedLauncherJar);
+    if (md5 == null) {
+      stampFile.delete();
+      return;
+    }
+
+    Properties stamp = new Properties();
+    stamp.setProperty("pack.md5", md5);
+    stamp.setProperty("jar.size", Long.toString(this.launcherJar.length()));
+    stamp.setProperty("jar.modified", Long.toString(this.launcherJar.lastModified()));
+
+    FileOutputStream outputStream = null;
+    try {
+      outputStream = new FileOutputStream(stampFile);
+      stamp.store(outputStream, "Pack " + this.packedLauncherJar.getName() + " was unpacked to " + this.launcherJar.getName());
+    } catch (IOException e) {
+      println("Unable to write " + stampFile + ": " + e);
+    } finally {
+      closeSilently(outputStream);
+    }
+  }
+
   public void unpack() {
-    File lzmaUnpacked = getUnpackedLzmaFile(this.packedLauncherJar);
+    getUnpackStampFile().delete();
+    unpackTo(null);
+    writeUnpackStamp();
+  }
+
+  // Unpacks into the launcher's classes without writing launcher.jar first; the jar is written in the background for the next start.
+  private LauncherClassLoader unpackToMemory() {
+    getUnpackStampFile().delete();
+    String packMd5 = getCachedMd5(this.packedLauncherJar);
+
+    MemoryJarOutputStream memoryJar;
+    LauncherClassLoader classLoader;
+    try {
+      memoryJar = new MemoryJarOutputStream(this.offHeapLaunch);
+      unpackTo(memoryJar);
+      classLoader = new LauncherClassLoader(memoryJar.getEntries(), this.launcherJar.toURI().toURL(), ClassLoader.getSystemClassLoader());
+    } catch (IOException e) {
+      throw new FatalBootstrapError("Unable to unpack: " + e);
+    }
+    writeLauncherJarLater(memoryJar, packMd5);
+    return classLoader;
+  }
+
+  // Writes to a file of its own, since a download still running in the background may be unpacking to launcher.jar.new.
+  private void writeLauncherJarLater(final MemoryJarOutputStream memoryJar, final String packMd5) {
+    Thread thread = new Thread("Launcher jar writer") {
+      public void run() {
+        OutputStream outputStream = null;
+        try {
+          outputStream = new BufferedOutputStream(new FileOutputStream(Bootstrap.this.launcherJarMemory), 65536);
+          writeJar(memoryJar, outputStream);
+          outputStream.close();
+          outputStream = null;
+          installUnpacked(Bootstrap.this.launcherJarMemory, packMd5);
+        } catch (IOException e) {
+          println("Unable to write " + Bootstrap.this.launcherJarMemory + ": " + e);
+          closeSilently(outputStream);
+          Bootstrap.this.launcherJarMemory.delete();
+        }
+      }
+    };
+    thread.setPriority(Thread.MIN_PRIORITY);
+    thread.start();
+  }
+
+  // Unpacks to launcher.jar, or into memoryJar when one is given.
+  private void unpackTo(MemoryJarOutputStream memoryJar) {
+    PackCodec codec;
+    try {
+      codec = PackCodecs.select(this.packedLauncherJar);
+    } catch (IOException e) {
+      throw new FatalBootstrapError("Unable to read " + this.packedLauncherJar + ": " + e);
+    }
     InputStream inputHandle = null;
-    OutputStream outputHandle = null;
 
-    println("Reversing LZMA on " + this.packedLauncherJar + " to " + lzmaUnpacked);
+    println("Decoding " + codec + " on " + this.packedLauncherJar + " and unpacking to " + (memoryJar == null ? this.launcherJar.toString() : "memory"));
     try
     {
-      inputHandle = new LzmaInputStream(new FileInputStream(packedLauncherJar));
-      outputHandle = new FileOutputStream(lzmaUnpacked);
-      byte buffer[] = new byte[0x10000];
-      for(int read = inputHandle.read(buffer); read >= 1; read = inputHandle.read(buffer))
-      {
-        outputHandle.write(buffer, 0, read);
+      inputHandle = codec.decode(this.packedLauncherJar, this);
+      if (inputHandle instanceof LzmaInputStream) {
+        watchLzma((LzmaInputStream)inputHandle);
+      }
+      long start = System.nanoTime();
+      // Pack200 closes its input and may stop short of the end, so the rest is drained here to let the decoder check it.
+      InputStream packStream = new BufferedInputStream(new FilterInputStream(inputHandle) {
+        public void close() {
+        }
+      }, UNPACK_BUFFER_SIZE);
+      if (memoryJar == null) {
+        unpackStream(packStream, this.launcherJar);
+      } else {
+        unpackStream(packStream, memoryJar);
+      }
+      transfer(inputHandle, new OutputStream() {
+        public void write(int b) {
+        }
+
+        public void write(byte[] b, int off, int len) {
+        }
+      });
+      long elapsed = System.nanoTime() - start;
+      if (inputHandle instanceof LzmaInputStream) {
+        reportLzma((LzmaInputStream)inputHandle, elapsed);
+      } else {
+        println("Decoded " + codec + " and unpacked in " + TimeUnit.NANOSECONDS.toMillis(elapsed) + " ms");
       }
     } catch (Exception e) {
-      throw new FatalBootstrapError("Unable to un-lzma: " + e);
+      if (memoryJar == null) {
+        this.launcherJar.delete();
+      }
+      throw new FatalBootstrapError("Unable to unpack: " + e);
     } finally {
       closeSilently(inputHandle);
-      closeSilently(outputHandle);
     }
+  }
 
-    println("Unpacking " + lzmaUnpacked + " to " + this.launcherJar);
+  private void watchLzma(LzmaInputStream inputHandle) throws IOException {
+    byte[] unpackedDigest = getManifestDigest();
+    if (unpackedDigest != null) {
+      println("Verifying the decoded pack against " + getUnpackManifestFile().getName());
+      inputHandle.verifyOutput(unpackedDigest);
+    }
+    inputHandle.setProgressListener(new LzmaProgressListener() {
+      private long nextReport;
+
+      public void blockDecoded(LzmaInputStream in) {
+        long size = in.getOutputSize();
+        if ((size > 0L) && (in.getOutputPosition() >= this.nextReport)) {
+          long percent = in.getOutputPosition() * 100L / size;
+          println("Reversing LZMA: " + percent + "% (" + in.getOutputPosition() / 1024L + " of " + size / 1024L + " KB)");
+          this.nextReport = (percent / 10L + 1L) * size / 10L;
+        }
+      }
+    });
+  }
+
+  private void reportLzma(LzmaInputStream inputHandle, long elapsed) {
+    long decodeNanos = Math.max(1L, inputHandle.getDecodeNanos());
+    println("Decoded LZMA and unpacked in " + TimeUnit.NANOSECONDS.toMillis(elapsed) + " ms (" + TimeUnit.NANOSECONDS.toMillis(decodeNanos) + " ms decoding LZMA, "
+      + inputHandle.getDecodedBytes() * 1000L / decodeNanos + " MB/s): " + inputHandle.getCompressedBytes() / 1024L + " KB to " + inputHandle.getDecodedBytes() / 1024L + " KB, "
+      + inputHandle.getLiteralCount() + " literals, " + inputHandle.getMatchCount() + " matches, " + inputHandle.getRepMatchCount() + " repeated matches");
+  }
  
-    JarOutputStream jarOutputStream = null;
+  private void writeJar(MemoryJarOutputStream memoryJar, OutputStream outputStream) throws IOException {
+    if (this.storedJar) {
+      memoryJar.writeStoredJar(outputStream, this.launcherJar.getName(), LAUNCHER_CLASS, this.parallelDeflate);
+    } else {
+      memoryJar.writeJar(outputStream, this.parallelDeflate);
+    }
+  }
+
+  // Entries are deflated on the common fork-join pool when parallelDeflate is set, and one after another by JarOutputStream otherwise.
+  static JarOutputStream newJarOutputStream(OutputStream outputStream, boolean parallelDeflate) throws IOException {
+    if (parallelDeflate) {
+      return new ParallelJarOutputStream(outputStream, ForkJoinPool.commonPool(), Deflater.DEFAULT_COMPRESSION);
+    }
+    return new JarOutputStream(outputStream);
+  }
+
+  // Writes a jar as it is and unpacks anything else with Pack200.
+  void unpackStream(InputStream packStream, File jar) throws IOException {
+    if (!packStream.markSupported()) {
+      packStream = new BufferedInputStream(packStream, 65536);
+    }
+    OutputStream outputStream = new FileOutputStream(jar);
     try {
-      jarOutputStream = new JarOutputStream(new FileOutputStream(this.launcherJar));
-      Pack200.newUnpacker().unpack(lzmaUnpacked, jarOutputStream);
-    } catch (Exception e) {
-      throw new FatalBootstrapError("Unable to un-pack200: " + e);
+      if (this.storedJar) {
+        // Entries are reordered and stored, so the whole jar is unpacked before any of it is written.
+        MemoryJarOutputStream memoryJar = new MemoryJarOutputStream(false);
+        unpackStream(packStream, memoryJar);
+        outputStream = new BufferedOutputStream(outputStream, 65536);
+        writeJar(memoryJar, outputStream);
+        outputStream.flush();
+      } else if (PackCodecs.isJar(packStream)) {
+        transfer(packStream, outputStream);
+      } else {
+        JarOutputStream jarOutputStream = newJarOutputStream(outputStream, this.parallelDeflate);
+        unpack200(packStream, jarOutputStream);
+        jarOutputStream.finish();
+      }
     } finally {
-      closeSilently(jarOutputStream);
+      closeSilently(outputStream);
+    }
+  }
+
+  // Same as above, into a jar stream; a jar payload is copied entry by entry.
+  void unpackStream(InputStream packStream, JarOutputStream jarOutputStream) throws IOException {
+    if (!packStream.markSupported()) {
+      packStream = new BufferedInputStream(packStream, 65536);
+    }
+    if (PackCodecs.isJar(packStream)) {
+      ZipInputStream zipInputStream = new ZipInputStream(packStream);
+      ZipEntry entry;
+      while ((entry = zipInputStream.getNextEntry()) != null) {
+        jarOutputStream.putNextEntry(new ZipEntry(entry));
+        transfer(zipInputStream, jarOutputStream);
+        jarOutputStream.closeEntry();
+      }
+    } else {
+      unpack200(packStream, jarOutputStream);
     }
+    jarOutputStream.finish();
+  }
+
+  // The native unpacker aborts the VM when its input throws, as it does when a decoder finds corrupt data part way through. It is given
+  // the end of the stream instead, and the decoder's error is thrown once it stops.
+  private static void unpack200(InputStream packStream, JarOutputStream jarOutputStream) throws IOException {
+    final Exception[] readError = new Exception[1];
+    InputStream inputStream = new FilterInputStream(packStream) {
+      public int read() {
+        byte[] b = new byte[1];
+        return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+      }
+
+      public int read(byte[] b, int off, int len) {
+        if (readError[0] != null) {
+          return -1;
+        }
+        try {
+          return this.in.read(b, off, len);
+        } catch (IOException e) {
+          readError[0] = e;
+        } catch (RuntimeException e) {
+          readError[0] = e;
+        }
+        return -1;
+      }
 
-    println("Cleaning up " + lzmaUnpacked);
+      public long skip(long n) {
+        byte[] b = new byte[(int)Math.max(0L, Math.min(n, 65536L))];
+        return Math.max(0, read(b, 0, b.length));
+      }
+    };
+    try {
+      Pack200.newUnpacker().unpack(inputStream, jarOutputStream);
+    } finally {
+      if (readError[0] instanceof IOException) {
+        throw (IOException)readError[0];
+      }
+      if (readError[0] != null) {
+        throw (RuntimeException)readError[0];
+      }
+    }
+  }
 
-    lzmaUnpacked.delete();
+  public static long transfer(InputStream inputStream, OutputStream outputStream) throws IOException {
+    if (inputStream instanceof LzmaInputStream) {
+      return ((LzmaInputStream)inputStream).transferTo(outputStream);
+    }
+    byte[] buffer = new byte[65536];
+    long transferred = 0L;
+    int read;
+    while ((read = inputStream.read(buffer)) != -1) {
+      outputStream.write(buffer, 0, read);
+      transferred += read;
+    }
+    return transferred;
   }
- 
+
   public static void closeSilently(Closeable closeable) {
     if (closeable != null) {
       try {
@@ -178,14 +624,28 @@ public class Bootstrap extends JFrame
     }
   }
  
-  private File getUnpackedLzmaFile(File packedLauncherJar) {
-    String filePath = packedLauncherJar.getAbsolutePath();
-    if (filePath.endsWith(".lzma")) {
-      filePath = filePath.substring(0, filePath.length() - 5);
+  // Read once, on first use, since the verify interval is only set after construction.
+  private synchronized DigestCache getDigestCache() {
+    if (this.digestCache == null) {
+      this.digestCache = new DigestCache(new File(this.workDir, "bootstrap_digests.properties"), this.digestVerifyInterval);
     }
-    return new File(filePath);
+    return this.digestCache;
   }
- 
+
+  public String getCachedMd5(File file) {
+    DigestCache digestCache = getDigestCache();
+    String md5 = digestCache.get(file);
+    if (md5 != null) {
+      return md5;
+    }
+
+    md5 = getMd5(file);
+    if (md5 != null) {
+      digestCache.put(file, md5);
+    }
+    return md5;
+  }
+
   public String getMd5(File file) {
     DigestInputStream stream = null;
     try {
@@ -232,11 +692,22 @@ public class Bootstrap extends JFrame
   }
 
   public void startLauncher(File launcherJar)
+  {
+    URL url;
+    try {
+      url = launcherJar.toURI().toURL();
+    } catch (MalformedURLException e) {
+      throw new FatalBootstrapError("Unable to start: " + e);
+    }
+    startLauncher(new URLClassLoader(new URL[] { url }));
+  }
+
+  public void startLauncher(ClassLoader classLoader)
   {
     println("Starting launcher.");
     try
     {
-      Class<?> aClass = new URLClassLoader(new URL[] { launcherJar.toURI().toURL() }).loadClass("net.minecraft.launcher.Launcher");
+      Class<?> aClass = classLoader.loadClass(LAUNCHER_CLASS);
       Constructor<?> constructor = aClass.getConstructor(new Class[] { JFrame.class, File.class, Proxy.class, PasswordAuthentication.class, java.lang.String[].class, Integer.class });
       constructor.newInstance(new Object[] { this, this.workDir, this.proxy, this.proxyAuth, this.remainderArgs, Integer.valueOf(4) });
     } catch (Exception e) {
@@ -276,6 +747,26 @@ public class Bootstrap extends JFrame
         else
           println("Nevermind... file vanished?");
       }
+      renameNewManifest();
+    }
+  }
+
+  // The manifest downloaded with the pack goes along with it. Without one the old manifest stays, and is ignored as it describes another pack.
+  private void renameNewManifest() {
+    File manifestFileNew = Downloader.getManifestFile(this.packedLauncherJarNew);
+    if (!manifestFileNew.isFile()) {
+      return;
+    }
+
+    File manifestFile = getUnpackManifestFile();
+    manifestFile.delete();
+    if (!manifestFileNew.renameTo(manifestFile)) {
+      try {
+        copyFile(manifestFileNew, manifestFile);
+        manifestFileNew.delete();
+      } catch (IOException e) {
+        println("Unable to move " + manifestFileNew + ": " + e + ", the decoded pack will not be verified");
+      }
     }
   }
  
@@ -311,6 +802,14 @@ public class Bootstrap extends JFrame
     OptionSpec<Integer> proxyPortOption = optionParser.accepts("proxyPort", "Optional").withRequiredArg().defaultsTo("8080", new String[0]).ofType(Integer.class);
     OptionSpec<?> proxyUserOption = optionParser.accepts("proxyUser", "Optional").withRequiredArg();
     OptionSpec<?> proxyPassOption = optionParser.accepts("proxyPass", "Optional").withRequiredArg();
+    OptionSpec<Integer> downloadConnectionsOption = optionParser.accepts("downloadConnections", "Parallel ranged connections used to download updates").withRequiredArg().defaultsTo("1", new String[0]).ofType(Integer.class);
+    optionParser.accepts("streamUnpack", "Unpack updates while they download");
+    OptionSpec<Integer> digestVerifyHoursOption = optionParser.accepts("digestVerifyHours", "Hours before a cached digest is rehashed").withRequiredArg().defaultsTo("24", new String[0]).ofType(Integer.class);
+    optionParser.accepts("launchStale", "Start the cached launcher and look for updates in the background");
+    optionParser.accepts("storedJar", "Write launcher.jar uncompressed, in class loading order and with an index");
+    optionParser.accepts("parallelDeflate", "Compress the entries of launcher.jar on all cores");
+    OptionSpec<String> inMemoryLaunchOption = optionParser.accepts("inMemoryLaunch", "Start the launcher from memory after unpacking and write launcher.jar in the background; \"direct\" keeps the classes off-heap").withOptionalArg();
+    OptionSpec<Integer> lzmaMemoryLimitOption = optionParser.accepts("lzmaMemoryLimit", "Megabytes the LZMA decoder may allocate, 0 for no limit").withRequiredArg().defaultsTo("0", new String[0]).ofType(Integer.class);
     OptionSpec<File> workingDirectoryOption = optionParser.accepts("workDir", "Optional").withRequiredArg().ofType(File.class).defaultsTo(Util.getWorkingDirectory(), new File[0]);
     OptionSpec<?> nonOptions = optionParser.nonOptions();
     OptionSet optionSet;
@@ -369,6 +868,15 @@ public class Bootstrap extends JFrame
     boolean force = optionSet.has("force");
 
     Bootstrap frame = new Bootstrap(workingDirectory, proxy, passwordAuthentication, remainderArgs);
+    frame.setDownloadConnections(downloadConnectionsOption.value(optionSet).intValue());
+    frame.setStreamUnpack(optionSet.has("streamUnpack"));
+    frame.setLaunchStale(optionSet.has("launchStale"));
+    frame.setInMemoryLaunch(optionSet.has(inMemoryLaunchOption));
+    frame.setStoredJar(optionSet.has("storedJar"));
+    frame.setParallelDeflate(optionSet.has("parallelDeflate"));
+    frame.setOffHeapLaunch("direct".equals(optionSet.valueOf(inMemoryLaunchOption)));
+    frame.setLzmaMemoryLimit(lzmaMemoryLimitOption.value(optionSet).intValue() * 1048576L);
+    frame.setDigestVerifyInterval(TimeUnit.HOURS.toMillis(digestVerifyHoursOption.value(optionSet).intValue()));
     try
     {
       frame.execute(force);
@@ -0,0 +1,151 @@
+package net.minecraft.bootstrap;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Orders jar entries roughly the way a class loader will ask for them: starting at the main class, each class is followed by its
+// superclass and interfaces, then by the classes named in its constant pool.
+class ClassLoadOrder
+{
+  private static final int CONSTANT_UTF8 = 1;
+  private static final int CONSTANT_CLASS = 7;
+
+  static List<String> sort(Map<String, ByteBuffer> entries, String mainClass, Set<String> first) {
+    Set<String> order = new LinkedHashSet<String>();
+    for (String name : first) {
+      if (entries.containsKey(name)) {
+        order.add(name);
+      }
+    }
+
+    ArrayDeque<String> queue = new ArrayDeque<String>();
+    queue.add(mainClass.replace('.', '/') + ".class");
+    while (!queue.isEmpty()) {
+      String name = queue.poll();
+      ByteBuffer bytes = entries.get(name);
+      if ((bytes == null) || (!order.add(name))) {
+        continue;
+      }
+      for (String referenced : getReferencedClasses(bytes.duplicate())) {
+        queue.add(referenced + ".class");
+      }
+    }
+
+    order.addAll(entries.keySet());
+    return new ArrayList<String>(order);
+  }
+
+  // Superclass and interfaces first, then the other classes in constant pool order. A class file that can't be parsed references nothing.
+  private static List<String> getReferencedClasses(ByteBuffer bytes) {
+    List<String> referenced = new ArrayList<String>();
+    try {
+      if (bytes.getInt() != 0xCAFEBABE) {
+        return referenced;
+      }
+      bytes.getInt();
+
+      int count = bytes.getShort() & 0xFFFF;
+      String[] utf8 = new String[count];
+      int[] classes = new int[count];
+      for (int i = 1; i < count; i++) {
+        int tag = bytes.get() & 0xFF;
+        switch (tag) {
+        case CONSTANT_UTF8:
+          utf8[i] = readUtf8(bytes);
+          break;
+        case CONSTANT_CLASS:
+          classes[i] = bytes.getShort() & 0xFFFF;
+          break;
+        case 3:
+        case 4:
+        case 9:
+        case 10:
+        case 11:
+        case 12:
+        case 17:
+        case 18:
+          skip(bytes, 4);
+          break;
+        case 5:
+        case 6:
+          skip(bytes, 8);
+          i++;
+          break;
+        case 8:
+        case 16:
+        case 19:
+        case 20:
+          skip(bytes, 2);
+          break;
+        case 15:
+          skip(bytes, 3);
+          break;
+        default:
+          return referenced;
+        }
+      }
+
+      bytes.getShort();
+      int thisClass = bytes.getShort() & 0xFFFF;
+      addClass(referenced, utf8, classes, bytes.getShort() & 0xFFFF);
+      int interfaces = bytes.getShort() & 0xFFFF;
+      for (int i = 0; i < interfaces; i++) {
+        addClass(referenced, utf8, classes, bytes.getShort() & 0xFFFF);
+      }
+      for (int i = 1; i < count; i++) {
+        if ((classes[i] != 0) && (i != thisClass)) {
+          addClass(referenced, utf8, classes, i);
+        }
+      }
+    } catch (BufferUnderflowException e) {
+    } catch (IllegalArgumentException e) {
+    } catch (ArrayIndexOutOfBoundsException e) {
+    }
+    return referenced;
+  }
+
+  private static void addClass(List<String> referenced, String[] utf8, int[] classes, int index) {
+    if ((index <= 0) || (index >= classes.length) || (classes[index] >= utf8.length) || (utf8[classes[index]] == null)) {
+      return;
+    }
+    String name = utf8[classes[index]];
+    // Array classes load their element type.
+    if (name.startsWith("[")) {
+      int start = name.lastIndexOf('[') + 1;
+      if ((name.length() < start + 3) || (name.charAt(start) != 'L') || (!name.endsWith(";"))) {
+        return;
+      }
+      name = name.substring(start + 1, name.length() - 1);
+    }
+    referenced.add(name);
+  }
+
+  // Decodes the one, two and three byte forms of modified UTF-8, which is all of it: characters outside the BMP are stored as surrogate
+  // pairs. Malformed bytes aren't checked for, the names only order the entries.
+  private static String readUtf8(ByteBuffer bytes) {
+    int length = bytes.getShort() & 0xFFFF;
+    StringBuilder builder = new StringBuilder(length);
+    int end = bytes.position() + length;
+    while (bytes.position() < end) {
+      int b = bytes.get() & 0xFF;
+      if (b < 0x80) {
+        builder.append((char)b);
+      } else if ((b & 0xE0) == 0xC0) {
+        builder.append((char)((b & 0x1F) << 6 | bytes.get() & 0x3F));
+      } else {
+        builder.append((char)((b & 0x0F) << 12 | (bytes.get() & 0x3F) << 6 | bytes.get() & 0x3F));
+      }
+    }
+    return builder.toString();
+  }
+
+  private static void skip(ByteBuffer bytes, int n) {
+    bytes.position(bytes.position() + n);
+  }
+}
@@ -0,0 +1,94 @@
+package net.minecraft.bootstrap;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Properties;
+
+public class DigestCache
+{
+  private final File cacheFile;
+  private final long verifyInterval;
+  private final Properties entries = new Properties();
+
+  public DigestCache(File cacheFile, long verifyInterval)
+  {
+    this.cacheFile = cacheFile;
+    this.verifyInterval = verifyInterval;
+
+    if (cacheFile.isFile()) {
+      FileInputStream inputStream = null;
+      try {
+        inputStream = new FileInputStream(cacheFile);
+        this.entries.load(inputStream);
+      } catch (IOException ignored) {
+        this.entries.clear();
+      } finally {
+        Bootstrap.closeSilently(inputStream);
+      }
+    }
+  }
+
+  public synchronized String get(File file) {
+    String path = file.getAbsolutePath();
+    String key = describe(file);
+    if ((key == null) || (!key.equals(this.entries.getProperty(path + ".key")))) {
+      return null;
+    }
+
+    try {
+      long verified = Long.parseLong(this.entries.getProperty(path + ".verified", "0"));
+      if (System.currentTimeMillis() - verified > this.verifyInterval)
+        return null;
+    }
+    catch (NumberFormatException ignored) {
+      return null;
+    }
+
+    return this.entries.getProperty(path + ".md5");
+  }
+
+  public synchronized void put(File file, String md5) {
+    String path = file.getAbsolutePath();
+    String key = describe(file);
+    if (key == null) {
+      return;
+    }
+
+    this.entries.setProperty(path + ".key", key);
+    this.entries.setProperty(path + ".md5", md5);
+    this.entries.setProperty(path + ".verified", Long.toString(System.currentTimeMillis()));
+
+    // Written next to the cache and moved over it, so a start that is killed half way leaves the old cache instead of a truncated one.
+    File newFile = new File(this.cacheFile.getPath() + ".new");
+    FileOutputStream outputStream = null;
+    try {
+      outputStream = new FileOutputStream(newFile);
+      this.entries.store(outputStream, "Digests of bootstrap files, keyed by path");
+      outputStream.close();
+      outputStream = null;
+      try {
+        Files.move(newFile.toPath(), this.cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(newFile.toPath(), this.cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      }
+    } catch (IOException ignored) {
+      Bootstrap.closeSilently(outputStream);
+      newFile.delete();
+    }
+  }
+
+  private static String describe(File file) {
+    try {
+      BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+      return attributes.size() + ":" + attributes.lastModifiedTime().toMillis() + ":" + attributes.fileKey();
+    } catch (IOException ignored) {
+      return null;
+    }
+  }
+}
@@ -1,15 +1,24 @@
 package net.minecraft.bootstrap;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
 import java.math.BigInteger;
 import java.net.BindException;
 import java.net.Proxy;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.security.MessageDigest;
+import java.util.Properties;
+import java.util.concurrent.Callable;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.atomic.AtomicBoolean;
 import javax.net.ssl.HttpsURLConnection;
 import javax.net.ssl.SSLHandshakeException;
@@ -19,14 +28,24 @@ public class Downloader
 {
   @SuppressWarnings("unused")
 private static final int MAX_RETRIES = 10;
+  private static final int MIN_SEGMENT_SIZE = 262144;
   private final Proxy proxy;
   private final String currentMd5;
   private final File targetFile;
   private final Controller controller;
+  private final int connections;
   private Bootstrap bootstrap;
+  private StreamingUnpacker streamingUnpacker;
+  private FutureTask<byte[]> manifestDownload;
 
   public Downloader(Controller controller, Bootstrap bootstrap, Proxy proxy, String currentMd5, File targetFile)
   {
+    this(controller, bootstrap, proxy, currentMd5, targetFile, 1);
+  }
+
+  public Downloader(Controller controller, Bootstrap bootstrap, Proxy proxy, String currentMd5, File targetFile, int connections)
+  {
+    this.connections = connections;
     this.controller = controller;
     this.bootstrap = bootstrap;
     this.proxy = proxy;
@@ -34,6 +53,10 @@ private static final int MAX_RETRIES = 10;
     this.targetFile = targetFile;
   }
 
+  public void setStreamingUnpacker(StreamingUnpacker streamingUnpacker) {
+    this.streamingUnpacker = streamingUnpacker;
+  }
+
   public void run()
   {
     int retries = 0;
@@ -53,6 +76,16 @@ private static final int MAX_RETRIES = 10;
           connection.setRequestProperty("If-None-Match", this.currentMd5.toLowerCase());
         }
 
+        Properties progress = readProgress();
+        long resumeFrom = 0L;
+        if ((progress != null) && (Bootstrap.stringHasValue(progress.getProperty("etag")))) {
+          resumeFrom = Math.min(Long.parseLong(progress.getProperty("bytes", "0")), this.targetFile.length());
+          if (resumeFrom > 0L) {
+            connection.setRequestProperty("Range", "bytes=" + resumeFrom + "-");
+            connection.setRequestProperty("If-Range", progress.getProperty("etag"));
+          }
+        }
+
         connection.setConnectTimeout(30000);
         connection.setReadTimeout(10000);
 
@@ -62,11 +95,18 @@ private static final int MAX_RETRIES = 10;
         long elapsed = System.nanoTime() - start;
         log(new StringBuilder().append("Got reply in: ").append(elapsed / 1000000L).append("ms").toString());
 
+        if ((resumeFrom > 0L) && (connection.getResponseCode() == 416)) {
+          log("Partial download is no longer valid, starting over.");
+          clearProgress();
+          continue;
+        }
+
         int code = connection.getResponseCode() / 100;
 
         if (code == 2)
         {
-          String eTag = connection.getHeaderField("ETag");
+          String rawETag = connection.getHeaderField("ETag");
+          String eTag = rawETag;
 
           if (eTag == null) {
             eTag = "-";
@@ -78,37 +118,39 @@ private static final int MAX_RETRIES = 10;
           this.controller.foundUpdate.set(true);
           this.controller.foundUpdateLatch.countDown();
 
-          InputStream inputStream = connection.getInputStream();
-          FileOutputStream outputStream = new FileOutputStream(this.targetFile);
-
-          MessageDigest digest = MessageDigest.getInstance("MD5");
-
-          long startDownload = System.nanoTime();
-          long bytesRead = 0L;
-          byte[] buffer = new byte[65536];
-          try {
-            int read = inputStream.read(buffer);
-            while (read >= 1) {
-              bytesRead += read;
-              digest.update(buffer, 0, read);
-              outputStream.write(buffer, 0, read);
-              read = inputStream.read(buffer);
+          long offset = 0L;
+          if (connection.getResponseCode() == 206) {
+            String contentRange = connection.getHeaderField("Content-Range");
+            if ((contentRange == null) || (!contentRange.startsWith("bytes " + resumeFrom + "-"))) {
+              clearProgress();
+              throw new IOException("Unexpected range in resumed download: " + contentRange);
             }
-          } finally {
-            inputStream.close();
-            outputStream.close();
+            offset = resumeFrom;
+            log(String.format("Resuming download at %.1fkb", new Object[] { Float.valueOf((float)offset / 1024.0F) }));
           }
-          long elapsedDownload = System.nanoTime() - startDownload;
-
-          float elapsedSeconds = (float)(1L + elapsedDownload) / 1.0E+009F;
-          float kbRead = (float)bytesRead / 1024.0F;
-          log(String.format("Downloaded %.1fkb in %ds at %.1fkb/s", new Object[] { Float.valueOf(kbRead), Integer.valueOf((int)elapsedSeconds), Float.valueOf(kbRead / elapsedSeconds) }));
 
-          String md5sum = String.format("%1$032x", new Object[] { new BigInteger(1, digest.digest()) });
-          if ((!eTag.contains("-")) && (!eTag.equalsIgnoreCase(md5sum))) {
+          int contentLength = connection.getContentLength();
+          String md5sum;
+          if ((offset == 0L) && (this.connections > 1) && ("bytes".equalsIgnoreCase(connection.getHeaderField("Accept-Ranges"))) && (contentLength >= MIN_SEGMENT_SIZE * 2))
+            md5sum = downloadRanged(url, connection, contentLength);
+          else {
+            if ((offset == 0L) && (this.streamingUnpacker != null)) {
+              startManifestDownload(eTag);
+            }
+            md5sum = downloadSingle(connection, rawETag, offset);
+          }
+          boolean verified = (eTag.contains("-")) || (eTag.equalsIgnoreCase(md5sum));
+          if ((this.streamingUnpacker != null) && (this.streamingUnpacker.isStarted())) {
+            this.controller.hasUnpacked.set(this.streamingUnpacker.finish(verified, awaitManifest()));
+          }
+          if (!verified) {
             log("After downloading, the MD5 hash didn't match. Retrying");
+            // The file goes before its sidecar, so it is never left behind looking like a finished update.
+            this.targetFile.delete();
+            clearProgress();
           }
           else {
+            clearProgress();
             this.controller.hasDownloadedLatch.countDown();
             return;
           }
@@ -118,17 +160,299 @@ private static final int MAX_RETRIES = 10;
           this.controller.foundUpdate.set(false);
           this.controller.foundUpdateLatch.countDown();
           log("No update found.");
+          if (progress != null) {
+            log("Discarding partial download of an older update.");
+            this.targetFile.delete();
+            clearProgress();
+          }
           return;
         }
       } catch (Exception e) {
         log(new StringBuilder().append("Exception: ").append(e.toString()).toString());
         suggestHelp(e);
+        if ((this.streamingUnpacker != null) && (this.streamingUnpacker.isStarted())) {
+          this.streamingUnpacker.finish(false, null);
+        }
+        if (this.manifestDownload != null) {
+          this.manifestDownload.cancel(true);
+          this.manifestDownload = null;
+        }
       }
     }
 
     log("Unable to download remote file. Check your internet connection/proxy settings.");
   }
 
+  private String downloadSingle(HttpsURLConnection connection, String eTag, long offset) throws Exception {
+    MessageDigest digest = MessageDigest.getInstance("MD5");
+    byte[] buffer = new byte[65536];
+
+    RandomAccessFile file = new RandomAccessFile(this.targetFile, "rw");
+    try {
+      file.setLength(offset);
+      for (long hashed = 0L; hashed < offset; ) {
+        int read = file.read(buffer, 0, (int)Math.min(buffer.length, offset - hashed));
+        if (read < 1) {
+          throw new IOException("Partial download shrank while resuming");
+        }
+        digest.update(buffer, 0, read);
+        hashed += read;
+      }
+    } finally {
+      file.close();
+    }
+    writeProgress(eTag, offset);
+
+    InputStream inputStream = connection.getInputStream();
+    FileOutputStream outputStream = new FileOutputStream(this.targetFile, true);
+    OutputStream unpackStream = null;
+    if ((offset == 0L) && (this.streamingUnpacker != null)) {
+      unpackStream = this.streamingUnpacker.start();
+    }
+
+    long startDownload = System.nanoTime();
+    long bytesRead = 0L;
+    boolean completed = false;
+    try {
+      int read = inputStream.read(buffer);
+      while (read >= 1) {
+        bytesRead += read;
+        digest.update(buffer, 0, read);
+        outputStream.write(buffer, 0, read);
+        if (unpackStream != null) {
+          try {
+            unpackStream.write(buffer, 0, read);
+          } catch (IOException e) {
+            // The unpacker stopped reading; keep downloading, finish() reports whether it got everything it needed.
+            unpackStream = null;
+          }
+        }
+        read = inputStream.read(buffer);
+      }
+      completed = true;
+    } finally {
+      inputStream.close();
+      outputStream.close();
+      Bootstrap.closeSilently(unpackStream);
+      try {
+        writeProgress(eTag, offset + bytesRead);
+      } catch (IOException e) {
+        // Don't let the sidecar hide why the download itself failed.
+        if (completed) {
+          throw e;
+        }
+        log("Unable to record download progress: " + e);
+      }
+    }
+    logSpeed(bytesRead, System.nanoTime() - startDownload);
+
+    return String.format("%1$032x", new Object[] { new BigInteger(1, digest.digest()) });
+  }
+
+  private String downloadRanged(URL url, HttpsURLConnection connection, int contentLength) throws Exception {
+    int count = Math.min(this.connections, contentLength / MIN_SEGMENT_SIZE);
+    int segmentSize = (contentLength + count - 1) / count;
+    String eTag = connection.getHeaderField("ETag");
+
+    log(String.format("Splitting download into %d segments of %dkb", new Object[] { Integer.valueOf(count), Integer.valueOf(segmentSize / 1024) }));
+
+    // Segments land out of order, so an interrupted ranged download is restarted rather than resumed. The sidecar is kept without an ETag:
+    // nothing resumes from it, but it marks the file as unfinished until run() has matched its MD5.
+    writeProgress(null, 0L);
+
+    long startDownload = System.nanoTime();
+    RandomAccessFile file = new RandomAccessFile(this.targetFile, "rw");
+    boolean completed = false;
+    try {
+      file.setLength(contentLength);
+      FileChannel channel = file.getChannel();
+
+      Segment[] segments = new Segment[count];
+      Thread[] threads = new Thread[count];
+      for (int i = 0; i < count; i++) {
+        int from = i * segmentSize;
+        int to = Math.min(contentLength, from + segmentSize) - 1;
+        segments[i] = new Segment(url, i == 0 ? connection : null, eTag, channel, from, to);
+        if (i > 0) {
+          threads[i] = new Thread(segments[i]);
+          threads[i].setName("Launcher downloader segment " + i);
+          threads[i].setDaemon(true);
+          threads[i].start();
+        }
+      }
+
+      segments[0].run();
+      for (int i = 1; i < count; i++) {
+        threads[i].join();
+      }
+      for (int i = 0; i < count; i++) {
+        if (segments[i].error != null) {
+          throw segments[i].error;
+        }
+      }
+      logSpeed(contentLength, System.nanoTime() - startDownload);
+
+      MessageDigest digest = MessageDigest.getInstance("MD5");
+      ByteBuffer buffer = ByteBuffer.allocate(65536);
+      long position = 0L;
+      for (int read = channel.read(buffer, position); read >= 1; read = channel.read(buffer, position)) {
+        position += read;
+        digest.update(buffer.array(), 0, read);
+        buffer.clear();
+      }
+      completed = true;
+
+      return String.format("%1$032x", new Object[] { new BigInteger(1, digest.digest()) });
+    } finally {
+      file.close();
+      if (!completed) {
+        this.targetFile.delete();
+        clearProgress();
+      }
+    }
+  }
+
+  // The manifest is only needed to verify a pack unpacked while it downloads. It is fetched on a thread of its own, so the pack's body is
+  // read meanwhile, and awaited once the body is in.
+  private void startManifestDownload(final String eTag) {
+    this.manifestDownload = new FutureTask<byte[]>(new Callable<byte[]>() {
+      public byte[] call() {
+        return downloadManifest(eTag);
+      }
+    });
+    Thread thread = new Thread(this.manifestDownload);
+    thread.setName("Launcher manifest downloader");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  private byte[] awaitManifest() {
+    FutureTask<byte[]> manifestDownload = this.manifestDownload;
+    this.manifestDownload = null;
+    if (manifestDownload == null) {
+      return null;
+    }
+    try {
+      return manifestDownload.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException e) {
+      log("Unable to download manifest: " + e.getCause());
+    }
+    return null;
+  }
+
+  // Fetches the manifest giving the decoded pack's SHA-256 and stores it beside the download. Only a manifest whose pack.md5 is the ETag
+  // being downloaded is kept, so a multipart ETag, which is not an MD5, goes without one.
+  private byte[] downloadManifest(String eTag) {
+    File manifestFile = getManifestFile(this.targetFile);
+    manifestFile.delete();
+    if (eTag.contains("-")) {
+      return null;
+    }
+
+    Properties manifest = new Properties();
+    InputStream inputStream = null;
+    try {
+      HttpsURLConnection connection = getConnection(new URL(Bootstrap.LAUNCHER_URL + ".manifest"));
+      connection.setUseCaches(false);
+      connection.setDefaultUseCaches(false);
+      connection.setRequestProperty("Cache-Control", "no-store,max-age=0,no-cache");
+      connection.setRequestProperty("Expires", "0");
+      connection.setRequestProperty("Pragma", "no-cache");
+      connection.setConnectTimeout(30000);
+      connection.setReadTimeout(10000);
+      connection.connect();
+
+      if (connection.getResponseCode() / 100 != 2) {
+        log("No manifest for this update (" + connection.getResponseCode() + "), the decoded pack will not be verified");
+        return null;
+      }
+      inputStream = connection.getInputStream();
+      manifest.load(inputStream);
+    } catch (IOException e) {
+      log("Unable to download manifest: " + e + ", the decoded pack will not be verified");
+      return null;
+    } finally {
+      Bootstrap.closeSilently(inputStream);
+    }
+
+    if (!eTag.equalsIgnoreCase(manifest.getProperty("pack.md5"))) {
+      log("Ignoring manifest, it describes a different pack");
+      return null;
+    }
+    byte[] unpackedDigest = Bootstrap.parseSha256(manifest.getProperty("unpacked.sha256"));
+    if (unpackedDigest == null) {
+      log("Ignoring manifest, unpacked.sha256 is not a SHA-256 digest");
+      return null;
+    }
+
+    FileOutputStream outputStream = null;
+    try {
+      outputStream = new FileOutputStream(manifestFile);
+      manifest.store(outputStream, null);
+      outputStream.close();
+      outputStream = null;
+    } catch (IOException e) {
+      log("Unable to write " + manifestFile + ": " + e);
+      Bootstrap.closeSilently(outputStream);
+      manifestFile.delete();
+    }
+    return unpackedDigest;
+  }
+
+  private void logSpeed(long bytesRead, long elapsedDownload) {
+    float elapsedSeconds = (float)(1L + elapsedDownload) / 1.0E+009F;
+    float kbRead = (float)bytesRead / 1024.0F;
+    log(String.format("Downloaded %.1fkb in %ds at %.1fkb/s", new Object[] { Float.valueOf(kbRead), Integer.valueOf((int)elapsedSeconds), Float.valueOf(kbRead / elapsedSeconds) }));
+  }
+
+  public static File getProgressFile(File targetFile) {
+    return new File(targetFile.getPath() + ".progress");
+  }
+
+  public static File getManifestFile(File targetFile) {
+    return new File(targetFile.getPath() + ".manifest");
+  }
+
+  private Properties readProgress() {
+    File progressFile = getProgressFile(this.targetFile);
+    if ((!progressFile.isFile()) || (!this.targetFile.isFile())) {
+      return null;
+    }
+
+    Properties progress = new Properties();
+    FileInputStream inputStream = null;
+    try {
+      inputStream = new FileInputStream(progressFile);
+      progress.load(inputStream);
+      Long.parseLong(progress.getProperty("bytes", "0"));
+    } catch (Exception e) {
+      log("Ignoring unreadable " + progressFile + ": " + e);
+      progress.clear();
+    } finally {
+      Bootstrap.closeSilently(inputStream);
+    }
+    return progress;
+  }
+
+  private void writeProgress(String eTag, long bytes) throws IOException {
+    Properties progress = new Properties();
+    progress.setProperty("etag", eTag == null ? "" : eTag);
+    progress.setProperty("bytes", Long.toString(bytes));
+
+    FileOutputStream outputStream = new FileOutputStream(getProgressFile(this.targetFile));
+    try {
+      progress.store(outputStream, null);
+    } finally {
+      outputStream.close();
+    }
+  }
+
+  private void clearProgress() {
+    getProgressFile(this.targetFile).delete();
+  }
+
   public void suggestHelp(Throwable t) {
     if ((t instanceof BindException))
       log("Recognized exception: the likely cause is a broken ipv4/6 stack. Check your TCP/IP settings.");
@@ -145,10 +469,82 @@ private static final int MAX_RETRIES = 10;
     return (HttpsURLConnection)url.openConnection(this.proxy);
   }
 
+  private class Segment
+    implements Runnable
+  {
+    private final URL url;
+    private final String eTag;
+    private final FileChannel channel;
+    private final long from;
+    private final long to;
+    private final boolean shared;
+    private HttpsURLConnection connection;
+    private volatile Exception error;
+
+    Segment(URL url, HttpsURLConnection connection, String eTag, FileChannel channel, long from, long to)
+    {
+      this.url = url;
+      this.connection = connection;
+      this.shared = (connection != null);
+      this.eTag = eTag;
+      this.channel = channel;
+      this.from = from;
+      this.to = to;
+    }
+
+    public void run()
+    {
+      try {
+        if (this.connection == null) {
+          this.connection = getConnection(this.url);
+          this.connection.setUseCaches(false);
+          this.connection.setDefaultUseCaches(false);
+          this.connection.setRequestProperty("Range", "bytes=" + this.from + "-" + this.to);
+          if (this.eTag != null) {
+            this.connection.setRequestProperty("If-Range", this.eTag);
+          }
+          this.connection.setConnectTimeout(30000);
+          this.connection.setReadTimeout(10000);
+          this.connection.connect();
+
+          String contentRange = this.connection.getHeaderField("Content-Range");
+          if ((this.connection.getResponseCode() != 206) || (contentRange == null) || (!contentRange.startsWith("bytes " + this.from + "-" + this.to + "/"))) {
+            throw new IOException("Server did not honour range " + this.from + "-" + this.to + " (got " + this.connection.getResponseCode() + " " + contentRange + ")");
+          }
+        }
+
+        InputStream inputStream = this.connection.getInputStream();
+        long position = this.from;
+        byte[] buffer = new byte[65536];
+        try {
+          while (position <= this.to) {
+            int read = inputStream.read(buffer, 0, (int)Math.min(buffer.length, this.to + 1L - position));
+            if (read < 1) {
+              throw new IOException("Segment " + this.from + "-" + this.to + " ended early at " + position);
+            }
+            ByteBuffer data = ByteBuffer.wrap(buffer, 0, read);
+            while (data.hasRemaining()) {
+              position += this.channel.write(data, position);
+            }
+          }
+        } finally {
+          if (this.shared) {
+            // The rest of the body belongs to the other segments; drop the socket instead of draining it.
+            this.connection.disconnect();
+          }
+          inputStream.close();
+        }
+      } catch (Exception e) {
+        this.error = e;
+      }
+    }
+  }
+
   public static class Controller
   {
     public final CountDownLatch foundUpdateLatch = new CountDownLatch(1);
     public final AtomicBoolean foundUpdate = new AtomicBoolean(false);
     public final CountDownLatch hasDownloadedLatch = new CountDownLatch(1);
+    public final AtomicBoolean hasUnpacked = new AtomicBoolean(false);
   }
 }
\ No newline at end of file
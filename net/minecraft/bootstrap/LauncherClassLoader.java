@@ -0,0 +1,144 @@
+package net.minecraft.bootstrap;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.nio.ByteBuffer;
+import java.security.CodeSource;
+import java.security.SecureClassLoader;
+import java.security.cert.Certificate;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Map;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+// Defines the launcher's classes straight from unpacked jar entries, so it can start before launcher.jar is written.
+public class LauncherClassLoader extends SecureClassLoader
+{
+  private final Map<String, ByteBuffer> entries;
+  private final Manifest manifest;
+  private final CodeSource codeSource;
+  private final URLStreamHandler handler = new URLStreamHandler() {
+    protected URLConnection openConnection(URL url) throws IOException {
+      final ByteBuffer bytes = LauncherClassLoader.this.entries.get(url.getPath().substring(1));
+      if (bytes == null) {
+        throw new FileNotFoundException(url.toString());
+      }
+      return new URLConnection(url) {
+        public void connect() {
+        }
+
+        public int getContentLength() {
+          return bytes.remaining();
+        }
+
+        public InputStream getInputStream() {
+          return new ByteBufferInputStream(bytes.duplicate());
+        }
+      };
+    }
+  };
+
+  static {
+    registerAsParallelCapable();
+  }
+
+  // The code source is where the jar will be written, which is where the launcher would otherwise be loaded from.
+  public LauncherClassLoader(Map<String, ByteBuffer> entries, URL location, ClassLoader parent) throws IOException {
+    super(parent);
+    this.entries = entries;
+    ByteBuffer manifestBytes = entries.get(JarFile.MANIFEST_NAME);
+    this.manifest = manifestBytes == null ? null : new Manifest(new ByteBufferInputStream(manifestBytes.duplicate()));
+    this.codeSource = new CodeSource(location, (Certificate[])null);
+  }
+
+  protected Class<?> findClass(String name) throws ClassNotFoundException {
+    ByteBuffer bytes = this.entries.get(name.replace('.', '/').concat(".class"));
+    if (bytes == null) {
+      throw new ClassNotFoundException(name);
+    }
+    int dot = name.lastIndexOf('.');
+    if (dot != -1) {
+      definePackage(name.substring(0, dot));
+    }
+    return defineClass(name, bytes.duplicate(), this.codeSource);
+  }
+
+  private void definePackage(String name) {
+    if (getPackage(name) != null) {
+      return;
+    }
+    try {
+      if (this.manifest == null) {
+        definePackage(name, null, null, null, null, null, null, null);
+      } else {
+        Attributes attributes = this.manifest.getMainAttributes();
+        definePackage(name, attributes.getValue(Attributes.Name.SPECIFICATION_TITLE), attributes.getValue(Attributes.Name.SPECIFICATION_VERSION),
+          attributes.getValue(Attributes.Name.SPECIFICATION_VENDOR), attributes.getValue(Attributes.Name.IMPLEMENTATION_TITLE),
+          attributes.getValue(Attributes.Name.IMPLEMENTATION_VERSION), attributes.getValue(Attributes.Name.IMPLEMENTATION_VENDOR), null);
+      }
+    } catch (IllegalArgumentException e) {
+      // Another thread defined it first.
+    }
+  }
+
+  protected URL findResource(String name) {
+    if (!this.entries.containsKey(name)) {
+      return null;
+    }
+    try {
+      return new URL("launcher", null, -1, "/" + name, this.handler);
+    } catch (MalformedURLException e) {
+      return null;
+    }
+  }
+
+  protected Enumeration<URL> findResources(String name) {
+    URL url = findResource(name);
+    if (url == null) {
+      return Collections.emptyEnumeration();
+    }
+    return Collections.enumeration(Collections.singletonList(url));
+  }
+
+  static class ByteBufferInputStream extends InputStream
+  {
+    private final ByteBuffer buffer;
+
+    ByteBufferInputStream(ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    public int read() {
+      return this.buffer.hasRemaining() ? this.buffer.get() & 0xFF : -1;
+    }
+
+    public int read(byte[] b, int off, int len) {
+      if (len == 0) {
+        return 0;
+      }
+      if (!this.buffer.hasRemaining()) {
+        return -1;
+      }
+      len = Math.min(len, this.buffer.remaining());
+      this.buffer.get(b, off, len);
+      return len;
+    }
+
+    public long skip(long n) {
+      int skipped = (int)Math.max(0L, Math.min(n, this.buffer.remaining()));
+      this.buffer.position(this.buffer.position() + skipped);
+      return skipped;
+    }
+
+    public int available() {
+      return this.buffer.remaining();
+    }
+  }
+}
@@ -0,0 +1,393 @@
+package net.minecraft.bootstrap;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+// Streaming decoder for the LZ4 frame format as written by the lz4 tool. Concatenated frames decode as one stream; preset dictionaries are not supported.
+public class Lz4FrameInputStream extends InputStream
+{
+  public static final int MAGIC = 0x184D2204;
+  private static final int SKIPPABLE_MAGIC = 0x184D2A50;
+  private static final int SKIPPABLE_MAGIC_MASK = 0xFFFFFFF0;
+  private static final int WINDOW_SIZE = 65536;
+  private static final int MIN_MATCH = 4;
+
+  private final InputStream in;
+  private byte[] compressed = new byte[0];
+  private byte[] buffer = new byte[0];
+  private int bufferStart;
+  private int bufferEnd;
+  private int bufferPos;
+  private int blockSize;
+  private boolean blockChecksum;
+  private boolean independentBlocks;
+  private XxHash32 contentChecksum;
+  private long contentSize;
+  private long frameDecoded;
+  private boolean inFrame;
+  private boolean finished;
+  private boolean closed;
+
+  public Lz4FrameInputStream(InputStream in) throws IOException {
+    this.in = in;
+    if (!readFrameHeader()) {
+      throw new IOException("LZ4: empty input");
+    }
+  }
+
+  public int read() throws IOException {
+    byte[] one = new byte[1];
+    return read(one, 0, 1) == -1 ? -1 : one[0] & 0xFF;
+  }
+
+  public int read(byte[] buf, int off, int len) throws IOException {
+    if (this.closed) {
+      throw new IOException("stream closed");
+    }
+    if ((off | len | (off + len) | (buf.length - (off + len))) < 0) {
+      throw new IndexOutOfBoundsException();
+    }
+    if (len == 0) {
+      return 0;
+    }
+
+    while (this.bufferPos == this.bufferEnd) {
+      if ((this.finished) || (!nextBlock())) {
+        return -1;
+      }
+    }
+
+    int n = Math.min(len, this.bufferEnd - this.bufferPos);
+    System.arraycopy(this.buffer, this.bufferPos, buf, off, n);
+    this.bufferPos += n;
+    return n;
+  }
+
+  public int available() throws IOException {
+    if (this.closed) {
+      throw new IOException("stream closed");
+    }
+    return this.bufferEnd - this.bufferPos;
+  }
+
+  public void close() throws IOException {
+    this.closed = true;
+    this.in.close();
+  }
+
+  private boolean readFrameHeader() throws IOException {
+    int magic;
+    while (true) {
+      int b = this.in.read();
+      if (b == -1) {
+        return false;
+      }
+      magic = b | readByte() << 8 | readByte() << 16 | readByte() << 24;
+      if ((magic & SKIPPABLE_MAGIC_MASK) != SKIPPABLE_MAGIC) {
+        break;
+      }
+      skipFully(readInt() & 0xFFFFFFFFL);
+    }
+    if (magic != MAGIC) {
+      throw new IOException("LZ4: not an LZ4 frame");
+    }
+
+    byte[] descriptor = new byte[14];
+    int length = 2;
+    descriptor[0] = (byte)readByte();
+    descriptor[1] = (byte)readByte();
+    int flags = descriptor[0] & 0xFF;
+    if ((flags >>> 6) != 1) {
+      throw new IOException("LZ4: unsupported frame version " + (flags >>> 6));
+    }
+    if ((flags & 0x01) != 0) {
+      throw new IOException("LZ4: preset dictionaries are not supported");
+    }
+    if (((flags & 0x02) != 0) || ((descriptor[1] & 0x8F) != 0)) {
+      throw new IOException("LZ4: reserved bits set in the frame descriptor");
+    }
+    int blockSizeId = (descriptor[1] >>> 4) & 0x07;
+    if (blockSizeId < 4) {
+      throw new IOException("LZ4: invalid block size " + blockSizeId);
+    }
+
+    this.contentSize = -1L;
+    if ((flags & 0x08) != 0) {
+      this.contentSize = 0L;
+      for (int i = 0; i < 8; i++) {
+        descriptor[length] = (byte)readByte();
+        this.contentSize |= (descriptor[length++] & 0xFFL) << (i * 8);
+      }
+    }
+    if (readByte() != ((XxHash32.hash(descriptor, 0, length) >>> 8) & 0xFF)) {
+      throw new IOException("LZ4: frame descriptor checksum mismatch");
+    }
+
+    this.independentBlocks = (flags & 0x20) != 0;
+    this.blockChecksum = (flags & 0x10) != 0;
+    this.contentChecksum = (flags & 0x04) != 0 ? new XxHash32() : null;
+    this.frameDecoded = 0L;
+    this.inFrame = true;
+
+    // The arrays only grow, so blocks are checked against this frame's block size rather than their length.
+    this.blockSize = 1 << (8 + 2 * blockSizeId);
+    if (this.compressed.length < this.blockSize) {
+      this.compressed = new byte[this.blockSize];
+      this.buffer = new byte[WINDOW_SIZE + this.blockSize];
+    }
+    this.bufferStart = this.bufferEnd = this.bufferPos = 0;
+    return true;
+  }
+
+  private boolean nextBlock() throws IOException {
+    if ((!this.inFrame) && (!readFrameHeader())) {
+      this.finished = true;
+      return false;
+    }
+
+    int size = readInt();
+    if (size == 0) {
+      endFrame();
+      return true;
+    }
+
+    boolean stored = size < 0;
+    size &= 0x7FFFFFFF;
+    if (size > this.blockSize) {
+      throw new IOException("LZ4: block larger than the frame's block size");
+    }
+    readFully(this.compressed, size);
+    if ((this.blockChecksum) && (readInt() != XxHash32.hash(this.compressed, 0, size))) {
+      throw new IOException("LZ4: block checksum mismatch");
+    }
+
+    // Linked blocks may copy from the previous 64 KB of output, so it stays in front of the new block.
+    int keep = this.independentBlocks ? 0 : Math.min(WINDOW_SIZE, this.bufferEnd);
+    if (this.bufferEnd > keep) {
+      System.arraycopy(this.buffer, this.bufferEnd - keep, this.buffer, 0, keep);
+    }
+    this.bufferStart = keep;
+
+    if (stored) {
+      System.arraycopy(this.compressed, 0, this.buffer, keep, size);
+      this.bufferEnd = keep + size;
+    } else {
+      this.bufferEnd = decodeBlock(size, keep);
+    }
+    this.bufferPos = this.bufferStart;
+
+    int decoded = this.bufferEnd - this.bufferStart;
+    this.frameDecoded += decoded;
+    if (this.contentChecksum != null) {
+      this.contentChecksum.update(this.buffer, this.bufferStart, decoded);
+    }
+    return true;
+  }
+
+  private void endFrame() throws IOException {
+    if ((this.contentChecksum != null) && (readInt() != this.contentChecksum.value())) {
+      throw new IOException("LZ4: content checksum mismatch");
+    }
+    if ((this.contentSize != -1L) && (this.contentSize != this.frameDecoded)) {
+      throw new IOException("LZ4: " + this.frameDecoded + " bytes decoded, " + this.contentSize + " expected");
+    }
+    this.inFrame = false;
+    this.bufferStart = this.bufferEnd = this.bufferPos = 0;
+  }
+
+  private int decodeBlock(int size, int out) throws IOException {
+    byte[] src = this.compressed;
+    byte[] dst = this.buffer;
+    int limit = out + this.blockSize;
+    int ip = 0;
+
+    while (true) {
+      int token = src[ip++] & 0xFF;
+
+      int literals = token >>> 4;
+      if (literals == 15) {
+        int b;
+        do {
+          if (ip >= size) {
+            throw new IOException("LZ4: corrupt block");
+          }
+          b = src[ip++] & 0xFF;
+          literals += b;
+        } while (b == 255);
+      }
+      if ((literals > size - ip) || (literals > limit - out)) {
+        throw new IOException("LZ4: corrupt block");
+      }
+      System.arraycopy(src, ip, dst, out, literals);
+      ip += literals;
+      out += literals;
+
+      // The last sequence has no match.
+      if (ip == size) {
+        return out;
+      }
+
+      if (ip > size - 2) {
+        throw new IOException("LZ4: corrupt block");
+      }
+      int offset = (src[ip] & 0xFF) | (src[ip + 1] & 0xFF) << 8;
+      ip += 2;
+      if ((offset == 0) || (offset > out)) {
+        throw new IOException("LZ4: corrupt block");
+      }
+
+      int length = token & 0x0F;
+      if (length == 15) {
+        int b;
+        do {
+          if (ip >= size) {
+            throw new IOException("LZ4: corrupt block");
+          }
+          b = src[ip++] & 0xFF;
+          length += b;
+        } while (b == 255);
+      }
+      length += MIN_MATCH;
+      if (length > limit - out) {
+        throw new IOException("LZ4: corrupt block");
+      }
+
+      int from = out - offset;
+      if (offset >= length) {
+        System.arraycopy(dst, from, dst, out, length);
+      } else {
+        for (int i = 0; i < length; i++) {
+          dst[out + i] = dst[from + i];
+        }
+      }
+      out += length;
+
+      if (ip >= size) {
+        throw new IOException("LZ4: corrupt block");
+      }
+    }
+  }
+
+  private int readByte() throws IOException {
+    int b = this.in.read();
+    if (b == -1) {
+      throw new EOFException("LZ4: unexpected end of input");
+    }
+    return b;
+  }
+
+  private int readInt() throws IOException {
+    return readByte() | readByte() << 8 | readByte() << 16 | readByte() << 24;
+  }
+
+  private void readFully(byte[] buf, int len) throws IOException {
+    int off = 0;
+    while (off < len) {
+      int n = this.in.read(buf, off, len - off);
+      if (n == -1) {
+        throw new EOFException("LZ4: unexpected end of input");
+      }
+      off += n;
+    }
+  }
+
+  private void skipFully(long n) throws IOException {
+    while (n > 0L) {
+      long skipped = this.in.skip(n);
+      if (skipped <= 0L) {
+        readByte();
+        skipped = 1L;
+      }
+      n -= skipped;
+    }
+  }
+
+  // xxHash32 with seed 0, the checksum used by the frame format.
+  static class XxHash32
+  {
+    private static final int PRIME1 = 0x9E3779B1;
+    private static final int PRIME2 = 0x85EBCA77;
+    private static final int PRIME3 = 0xC2B2AE3D;
+    private static final int PRIME4 = 0x27D4EB2F;
+    private static final int PRIME5 = 0x165667B1;
+
+    private int v1 = PRIME1 + PRIME2;
+    private int v2 = PRIME2;
+    private int v3 = 0;
+    private int v4 = -PRIME1;
+    private final byte[] pending = new byte[16];
+    private int pendingLength;
+    private long total;
+
+    static int hash(byte[] buf, int off, int len) {
+      XxHash32 hash = new XxHash32();
+      hash.update(buf, off, len);
+      return hash.value();
+    }
+
+    void update(byte[] buf, int off, int len) {
+      this.total += len;
+
+      if (this.pendingLength > 0) {
+        int n = Math.min(len, 16 - this.pendingLength);
+        System.arraycopy(buf, off, this.pending, this.pendingLength, n);
+        this.pendingLength += n;
+        off += n;
+        len -= n;
+        if (this.pendingLength < 16) {
+          return;
+        }
+        stripe(this.pending, 0);
+        this.pendingLength = 0;
+      }
+
+      int end = off + len;
+      for (; off <= end - 16; off += 16) {
+        stripe(buf, off);
+      }
+      System.arraycopy(buf, off, this.pending, 0, end - off);
+      this.pendingLength = end - off;
+    }
+
+    private void stripe(byte[] buf, int off) {
+      this.v1 = round(this.v1, getInt(buf, off));
+      this.v2 = round(this.v2, getInt(buf, off + 4));
+      this.v3 = round(this.v3, getInt(buf, off + 8));
+      this.v4 = round(this.v4, getInt(buf, off + 12));
+    }
+
+    int value() {
+      int h;
+      if (this.total >= 16L) {
+        h = Integer.rotateLeft(this.v1, 1) + Integer.rotateLeft(this.v2, 7) + Integer.rotateLeft(this.v3, 12) + Integer.rotateLeft(this.v4, 18);
+      } else {
+        h = this.v3 + PRIME5;
+      }
+      h += (int)this.total;
+
+      int off = 0;
+      for (; off <= this.pendingLength - 4; off += 4) {
+        h = Integer.rotateLeft(h + getInt(this.pending, off) * PRIME3, 17) * PRIME4;
+      }
+      for (; off < this.pendingLength; off++) {
+        h = Integer.rotateLeft(h + (this.pending[off] & 0xFF) * PRIME5, 11) * PRIME1;
+      }
+
+      h ^= h >>> 15;
+      h *= PRIME2;
+      h ^= h >>> 13;
+      h *= PRIME3;
+      h ^= h >>> 16;
+      return h;
+    }
+
+    private static int round(int acc, int input) {
+      return Integer.rotateLeft(acc + input * PRIME2, 13) * PRIME1;
+    }
+
+    private static int getInt(byte[] buf, int off) {
+      return (buf[off] & 0xFF) | (buf[off + 1] & 0xFF) << 8 | (buf[off + 2] & 0xFF) << 16 | (buf[off + 3] & 0xFF) << 24;
+    }
+  }
+}
@@ -0,0 +1,170 @@
+package net.minecraft.bootstrap;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+
+// Collects the entries written to it instead of compressing them into a jar, on the heap or in direct buffers.
+public class MemoryJarOutputStream extends JarOutputStream
+{
+  private static final String INDEX_NAME = "META-INF/INDEX.LIST";
+  private static final OutputStream NOWHERE = new OutputStream() {
+    public void write(int b) {
+    }
+
+    public void write(byte[] b, int off, int len) {
+    }
+  };
+  private final boolean direct;
+  private final Map<String, ByteBuffer> entries = new LinkedHashMap<String, ByteBuffer>();
+  private final Map<String, ZipEntry> written = new HashMap<String, ZipEntry>();
+  private final ByteArrayOutputStream current = new ByteArrayOutputStream(65536);
+  private ZipEntry currentEntry;
+
+  public MemoryJarOutputStream(boolean direct) throws IOException {
+    super(NOWHERE);
+    // Nothing goes through the base stream, so its deflater is freed right away instead of when it is collected.
+    this.def.end();
+    this.direct = direct;
+  }
+
+  public void putNextEntry(ZipEntry entry) throws IOException {
+    closeEntry();
+    this.currentEntry = entry;
+  }
+
+  public void write(int b) throws IOException {
+    write(new byte[] { (byte)b }, 0, 1);
+  }
+
+  public void write(byte[] b, int off, int len) throws IOException {
+    if (this.currentEntry == null) {
+      throw new IOException("no current entry");
+    }
+    this.current.write(b, off, len);
+  }
+
+  public void closeEntry() throws IOException {
+    if (this.currentEntry == null) {
+      return;
+    }
+
+    ByteBuffer buffer;
+    if (this.direct) {
+      buffer = ByteBuffer.allocateDirect(this.current.size());
+      buffer.put(this.current.toByteArray());
+      buffer.flip();
+    } else {
+      buffer = ByteBuffer.wrap(this.current.toByteArray());
+    }
+    this.entries.put(this.currentEntry.getName(), buffer.asReadOnlyBuffer());
+    this.written.put(this.currentEntry.getName(), this.currentEntry);
+    this.current.reset();
+    this.currentEntry = null;
+  }
+
+  public void finish() throws IOException {
+    closeEntry();
+  }
+
+  public void close() throws IOException {
+    closeEntry();
+  }
+
+  // Entries by name, in the order they were written.
+  public Map<String, ByteBuffer> getEntries() {
+    return Collections.unmodifiableMap(this.entries);
+  }
+
+  public void writeJar(OutputStream outputStream, boolean parallelDeflate) throws IOException {
+    JarOutputStream jarOutputStream = Bootstrap.newJarOutputStream(outputStream, parallelDeflate);
+    byte[] chunk = new byte[65536];
+    for (Map.Entry<String, ByteBuffer> entry : this.entries.entrySet()) {
+      jarOutputStream.putNextEntry(newEntry(entry.getKey(), entry.getValue(), false));
+      ByteBuffer buffer = entry.getValue().duplicate();
+      while (buffer.hasRemaining()) {
+        int length = Math.min(chunk.length, buffer.remaining());
+        buffer.get(chunk, 0, length);
+        jarOutputStream.write(chunk, 0, length);
+      }
+      jarOutputStream.closeEntry();
+    }
+    jarOutputStream.finish();
+  }
+
+  // Writes the entries uncompressed in the order mainClass is likely to load them, with a META-INF/INDEX.LIST for jarName.
+  public void writeStoredJar(OutputStream outputStream, String jarName, String mainClass, boolean parallelDeflate) throws IOException {
+    Map<String, ByteBuffer> entries = new LinkedHashMap<String, ByteBuffer>(this.entries);
+    entries.remove(INDEX_NAME);
+    entries.put(INDEX_NAME, ByteBuffer.wrap(getIndex(jarName).getBytes("UTF-8")));
+
+    Set<String> first = new LinkedHashSet<String>();
+    first.add("META-INF/");
+    first.add(JarFile.MANIFEST_NAME);
+    first.add(INDEX_NAME);
+
+    JarOutputStream jarOutputStream = Bootstrap.newJarOutputStream(outputStream, parallelDeflate);
+    byte[] chunk = new byte[65536];
+    for (String name : ClassLoadOrder.sort(entries, mainClass, first)) {
+      jarOutputStream.putNextEntry(newEntry(name, entries.get(name), true));
+      ByteBuffer buffer = entries.get(name).duplicate();
+      while (buffer.hasRemaining()) {
+        int length = Math.min(chunk.length, buffer.remaining());
+        buffer.get(chunk, 0, length);
+        jarOutputStream.write(chunk, 0, length);
+      }
+      jarOutputStream.closeEntry();
+    }
+    jarOutputStream.finish();
+  }
+
+  // The entry as it was written here, with its time, method, extra field and comment, or a new one for an entry made up here. JarOutputStream
+  // needs the sizes and CRC of a stored entry up front, and checks a compressed size left over from the unpacker against its own.
+  private ZipEntry newEntry(String name, ByteBuffer data, boolean stored) {
+    ZipEntry written = this.written.get(name);
+    ZipEntry entry = written == null ? new ZipEntry(name) : new ZipEntry(written);
+    if (stored) {
+      entry.setMethod(ZipEntry.STORED);
+    }
+    if (entry.getMethod() == ZipEntry.STORED) {
+      CRC32 crc = new CRC32();
+      crc.update(data.duplicate());
+      entry.setSize(data.remaining());
+      entry.setCompressedSize(data.remaining());
+      entry.setCrc(crc.getValue());
+    } else {
+      entry.setCompressedSize(-1L);
+    }
+    return entry;
+  }
+
+  // The jar index lists the directory of every entry, or the name of an entry at the root, the same way the jar tool does. Like the jar
+  // tool, a directory entry counts too: "a/b/" lists "a/b".
+  private String getIndex(String jarName) {
+    Set<String> packages = new LinkedHashSet<String>();
+    for (String name : this.entries.keySet()) {
+      if ((name.equals("META-INF/")) || (name.equals(JarFile.MANIFEST_NAME)) || (name.equals(INDEX_NAME)) || (name.startsWith("META-INF/versions/"))) {
+        continue;
+      }
+      int slash = name.lastIndexOf('/');
+      packages.add(slash == -1 ? name : name.substring(0, slash));
+    }
+
+    StringBuilder index = new StringBuilder("JarIndex-Version: 1.0\n\n").append(jarName).append('\n');
+    for (String name : packages) {
+      index.append(name).append('\n');
+    }
+    return index.append('\n').toString();
+  }
+}
@@ -0,0 +1,26 @@
+package net.minecraft.bootstrap;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+// A compression format the packed launcher may come in. Implementations listed in META-INF/services/net.minecraft.bootstrap.PackCodec are picked up by PackCodecs.
+public abstract class PackCodec
+{
+  public abstract String getName();
+
+  // Only LZMA, the default, has no signature; any other codec is chosen by the one it recognizes here.
+  public abstract boolean matches(byte[] header, int length);
+
+  public abstract InputStream decode(InputStream packed, Bootstrap bootstrap) throws IOException;
+
+  public InputStream decode(File packed, Bootstrap bootstrap) throws IOException {
+    return decode(new BufferedInputStream(new FileInputStream(packed), 65536), bootstrap);
+  }
+
+  public String toString() {
+    return getName();
+  }
+}
@@ -0,0 +1,185 @@
+package net.minecraft.bootstrap;
+
+import LZMA.LzmaInputStream;
+import LZMA.XzInputStream;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+
+public class PackCodecs
+{
+  public static final int HEADER_LENGTH = 8;
+  private static final PackCodec LZMA = new LzmaCodec();
+  private static final List<PackCodec> codecs = new ArrayList<PackCodec>();
+
+  static {
+    Iterator<PackCodec> services = ServiceLoader.load(PackCodec.class).iterator();
+    while (true) {
+      try {
+        if (!services.hasNext()) {
+          break;
+        }
+        codecs.add(services.next());
+      } catch (ServiceConfigurationError e) {
+        System.err.println("Ignoring pack codec: " + e);
+      }
+    }
+    codecs.add(new XzCodec());
+    codecs.add(new Lz4Codec());
+    codecs.add(new PlainCodec());
+    codecs.add(LZMA);
+  }
+
+  public static synchronized void register(PackCodec codec) {
+    codecs.add(0, codec);
+  }
+
+  // Chosen by the first bytes alone: the pack is always saved as launcher.pack.lzma, whatever a mirror serves under that name. LZMA has no
+  // signature and is the default. XZ and LZ4 packs are made with the xz and lz4 tools.
+  public static synchronized PackCodec select(byte[] header, int length) {
+    for (PackCodec codec : codecs) {
+      if (codec.matches(header, length)) {
+        return codec;
+      }
+    }
+    return LZMA;
+  }
+
+  public static PackCodec select(File packed) throws IOException {
+    byte[] header = new byte[HEADER_LENGTH];
+    InputStream inputStream = new FileInputStream(packed);
+    try {
+      return select(header, readHeader(inputStream, header));
+    } finally {
+      Bootstrap.closeSilently(inputStream);
+    }
+  }
+
+  public static InputStream open(InputStream packed, Bootstrap bootstrap) throws IOException {
+    if (!packed.markSupported()) {
+      packed = new BufferedInputStream(packed, 65536);
+    }
+    byte[] header = new byte[HEADER_LENGTH];
+    packed.mark(HEADER_LENGTH);
+    int length = readHeader(packed, header);
+    packed.reset();
+    return select(header, length).decode(packed, bootstrap);
+  }
+
+  // Peeks at a stream that supports mark().
+  static boolean isJar(InputStream inputStream) throws IOException {
+    byte[] header = new byte[PlainCodec.JAR_MAGIC.length];
+    inputStream.mark(header.length);
+    int length = readHeader(inputStream, header);
+    inputStream.reset();
+    return startsWith(header, length, PlainCodec.JAR_MAGIC);
+  }
+
+  private static int readHeader(InputStream inputStream, byte[] header) throws IOException {
+    int length = 0;
+    while (length < header.length) {
+      int read = inputStream.read(header, length, header.length - length);
+      if (read == -1) {
+        break;
+      }
+      length += read;
+    }
+    return length;
+  }
+
+  static boolean startsWith(byte[] header, int length, byte[] magic) {
+    if (length < magic.length) {
+      return false;
+    }
+    for (int i = 0; i < magic.length; i++) {
+      if (header[i] != magic[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  static class LzmaCodec extends PackCodec
+  {
+    public String getName() {
+      return "LZMA";
+    }
+
+    public boolean matches(byte[] header, int length) {
+      return false;
+    }
+
+    public InputStream decode(InputStream packed, Bootstrap bootstrap) throws IOException {
+      return new LzmaInputStream(packed, bootstrap.getLzmaMemoryLimit());
+    }
+
+    // Windows keeps a mapped file locked until the mapping is garbage collected, long after the stream is closed, and renameNew() or a
+    // download could then not replace the pack. It is read as a stream there.
+    public InputStream decode(File packed, Bootstrap bootstrap) throws IOException {
+      if (Util.getPlatform() == Util.OS.WINDOWS) {
+        return super.decode(packed, bootstrap);
+      }
+      return new LzmaInputStream(packed.toPath(), bootstrap.getLzmaMemoryLimit());
+    }
+  }
+
+  static class XzCodec extends PackCodec
+  {
+    private static final byte[] MAGIC = { (byte)0xFD, '7', 'z', 'X', 'Z', 0 };
+
+    public String getName() {
+      return "XZ";
+    }
+
+    public boolean matches(byte[] header, int length) {
+      return startsWith(header, length, MAGIC);
+    }
+
+    public InputStream decode(InputStream packed, Bootstrap bootstrap) throws IOException {
+      return new XzInputStream(packed, bootstrap.getLzmaMemoryLimit());
+    }
+  }
+
+  static class Lz4Codec extends PackCodec
+  {
+    private static final byte[] MAGIC = { 0x04, 0x22, 0x4D, 0x18 };
+
+    public String getName() {
+      return "LZ4";
+    }
+
+    public boolean matches(byte[] header, int length) {
+      return startsWith(header, length, MAGIC);
+    }
+
+    public InputStream decode(InputStream packed, Bootstrap bootstrap) throws IOException {
+      return new Lz4FrameInputStream(packed);
+    }
+  }
+
+  // An uncompressed Pack200 archive or jar.
+  static class PlainCodec extends PackCodec
+  {
+    private static final byte[] PACK200_MAGIC = { (byte)0xCA, (byte)0xFE, (byte)0xD0, 0x0D };
+    static final byte[] JAR_MAGIC = { 'P', 'K', 3, 4 };
+
+    public String getName() {
+      return "uncompressed";
+    }
+
+    public boolean matches(byte[] header, int length) {
+      return (startsWith(header, length, PACK200_MAGIC)) || (startsWith(header, length, JAR_MAGIC));
+    }
+
+    public InputStream decode(InputStream packed, Bootstrap bootstrap) throws IOException {
+      return packed;
+    }
+  }
+}
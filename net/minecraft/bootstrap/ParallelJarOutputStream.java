@@ -0,0 +1,326 @@
+package net.minecraft.bootstrap;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.jar.JarOutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+// A jar writer that deflates each entry on a fork-join pool once it is closed and writes the entries in order as they are done, so
+// unpacking goes on while earlier entries compress. The output depends only on the entries and the level, never on the threads.
+public class ParallelJarOutputStream extends JarOutputStream
+{
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+  private static final int LOCAL_HEADER = 0x04034B50;
+  private static final int CENTRAL_HEADER = 0x02014B50;
+  private static final int END_HEADER = 0x06054B50;
+  private static final int UTF8_NAMES = 0x0800;
+  private static final int JAR_MAGIC = 0xCAFE;
+  // 1980-01-01 00:00, the earliest DOS time, for entries without one.
+  private static final long DOS_EPOCH = 0x00210000L;
+  private static final OutputStream NOWHERE = new OutputStream() {
+    public void write(int b) {
+    }
+
+    public void write(byte[] b, int off, int len) {
+    }
+  };
+
+  private final OutputStream output;
+  private final ForkJoinPool pool;
+  private final int level;
+  private final int maxPending;
+  private final boolean inline;
+  private final ArrayDeque<DeflateTask> pending = new ArrayDeque<DeflateTask>();
+  private final ByteArrayOutputStream current = new ByteArrayOutputStream(65536);
+  private final ByteArrayOutputStream centralDirectory = new ByteArrayOutputStream();
+  private final Set<String> names = new HashSet<String>();
+  // Deflaters the tasks borrow and hand back, so entries don't each allocate and free native zlib state.
+  private final ArrayDeque<Deflater> deflaters = new ArrayDeque<Deflater>();
+  private boolean deflatersEnded;
+  private ZipEntry currentEntry;
+  private long written;
+  private int count;
+  private boolean finished;
+
+  public ParallelJarOutputStream(OutputStream output, ForkJoinPool pool, int level) throws IOException {
+    super(NOWHERE);
+    // Entries are deflated by the tasks, never by the base stream, so its deflater is freed right away.
+    this.def.end();
+    this.output = output;
+    this.pool = pool;
+    this.level = level;
+    this.maxPending = Math.max(4, pool.getParallelism() * 4);
+    // Handing entries to another thread only costs when there is no other core to run it.
+    this.inline = Runtime.getRuntime().availableProcessors() == 1;
+  }
+
+  public void putNextEntry(ZipEntry entry) throws IOException {
+    closeEntry();
+    if (this.finished) {
+      throw new IOException("jar already finished");
+    }
+    if (!this.names.add(entry.getName())) {
+      throw new ZipException("duplicate entry: " + entry.getName());
+    }
+    this.currentEntry = entry;
+  }
+
+  public void write(int b) throws IOException {
+    write(new byte[] { (byte)b }, 0, 1);
+  }
+
+  public void write(byte[] b, int off, int len) throws IOException {
+    if (this.currentEntry == null) {
+      throw new ZipException("no current ZIP entry");
+    }
+    this.current.write(b, off, len);
+  }
+
+  public void closeEntry() throws IOException {
+    if (this.currentEntry == null) {
+      return;
+    }
+
+    DeflateTask task = new DeflateTask(this.currentEntry, this.current.toByteArray());
+    this.currentEntry = null;
+    this.current.reset();
+    if (this.inline) {
+      task.invoke();
+    } else {
+      this.pool.execute(task);
+    }
+    this.pending.add(task);
+
+    while ((!this.pending.isEmpty()) && ((this.pending.peek().isDone()) || (this.pending.size() > this.maxPending))) {
+      writeEntry(this.pending.poll());
+    }
+  }
+
+  public void finish() throws IOException {
+    if (this.finished) {
+      return;
+    }
+    closeEntry();
+    while (!this.pending.isEmpty()) {
+      writeEntry(this.pending.poll());
+    }
+    this.finished = true;
+    endDeflaters();
+
+    if (this.count > 0xFFFF) {
+      throw new ZipException("too many entries for a jar without ZIP64: " + this.count);
+    }
+    long offset = this.written;
+    this.centralDirectory.writeTo(this.output);
+    this.written += this.centralDirectory.size();
+
+    ByteArrayOutputStream end = new ByteArrayOutputStream(22);
+    writeInt(end, END_HEADER);
+    writeShort(end, 0);
+    writeShort(end, 0);
+    writeShort(end, this.count);
+    writeShort(end, this.count);
+    writeInt(end, checkSize(this.centralDirectory.size()));
+    writeInt(end, checkSize(offset));
+    writeShort(end, 0);
+    end.writeTo(this.output);
+    this.output.flush();
+  }
+
+  public void flush() throws IOException {
+    this.output.flush();
+  }
+
+  public void close() throws IOException {
+    try {
+      finish();
+    } finally {
+      endDeflaters();
+      this.output.close();
+    }
+  }
+
+  private Deflater takeDeflater() {
+    synchronized (this.deflaters) {
+      Deflater deflater = this.deflaters.poll();
+      return deflater == null ? new Deflater(Deflater.DEFAULT_COMPRESSION, true) : deflater;
+    }
+  }
+
+  private void returnDeflater(Deflater deflater) {
+    synchronized (this.deflaters) {
+      if (this.deflatersEnded) {
+        deflater.end();
+      } else {
+        this.deflaters.push(deflater);
+      }
+    }
+  }
+
+  // A task still running when a failed jar is closed ends its deflater as it hands it back.
+  private void endDeflaters() {
+    synchronized (this.deflaters) {
+      this.deflatersEnded = true;
+      for (Deflater deflater : this.deflaters) {
+        deflater.end();
+      }
+      this.deflaters.clear();
+    }
+  }
+
+  private void writeEntry(DeflateTask task) throws IOException {
+    task.join();
+    byte[] name = task.entry.getName().getBytes(UTF8);
+    int method = task.stored ? ZipEntry.STORED : ZipEntry.DEFLATED;
+    int version = task.stored ? 10 : 20;
+    long time = task.entry.getTime() == -1L ? DOS_EPOCH : toDosTime(task.entry.getTime());
+    byte[] extra = task.entry.getExtra() == null ? new byte[0] : task.entry.getExtra();
+    // The jar magic goes on the first entry, as JarOutputStream does.
+    if ((this.count == 0) && (!hasJarMagic(extra))) {
+      byte[] withMagic = new byte[4 + extra.length];
+      withMagic[0] = (byte)JAR_MAGIC;
+      withMagic[1] = (byte)(JAR_MAGIC >>> 8);
+      System.arraycopy(extra, 0, withMagic, 4, extra.length);
+      extra = withMagic;
+    }
+    byte[] comment = task.entry.getComment() == null ? new byte[0] : task.entry.getComment().getBytes(UTF8);
+    if ((name.length > 0xFFFF) || (extra.length > 0xFFFF) || (comment.length > 0xFFFF)) {
+      throw new ZipException("name, extra field or comment too long: " + task.entry.getName());
+    }
+    long offset = this.written;
+
+    ByteArrayOutputStream header = new ByteArrayOutputStream(30 + name.length + extra.length);
+    writeInt(header, LOCAL_HEADER);
+    writeShort(header, version);
+    writeShort(header, UTF8_NAMES);
+    writeShort(header, method);
+    writeInt(header, time);
+    writeInt(header, task.crc);
+    writeInt(header, checkSize(task.data.length));
+    writeInt(header, checkSize(task.size));
+    writeShort(header, name.length);
+    writeShort(header, extra.length);
+    header.write(name, 0, name.length);
+    header.write(extra, 0, extra.length);
+    header.writeTo(this.output);
+    this.output.write(task.data);
+    this.written += header.size() + task.data.length;
+
+    writeInt(this.centralDirectory, CENTRAL_HEADER);
+    writeShort(this.centralDirectory, version);
+    writeShort(this.centralDirectory, version);
+    writeShort(this.centralDirectory, UTF8_NAMES);
+    writeShort(this.centralDirectory, method);
+    writeInt(this.centralDirectory, time);
+    writeInt(this.centralDirectory, task.crc);
+    writeInt(this.centralDirectory, task.data.length);
+    writeInt(this.centralDirectory, task.size);
+    writeShort(this.centralDirectory, name.length);
+    writeShort(this.centralDirectory, extra.length);
+    writeShort(this.centralDirectory, comment.length);
+    writeShort(this.centralDirectory, 0);
+    writeShort(this.centralDirectory, 0);
+    writeInt(this.centralDirectory, 0);
+    writeInt(this.centralDirectory, checkSize(offset));
+    this.centralDirectory.write(name, 0, name.length);
+    this.centralDirectory.write(extra, 0, extra.length);
+    this.centralDirectory.write(comment, 0, comment.length);
+    this.count++;
+  }
+
+  private static boolean hasJarMagic(byte[] extra) {
+    for (int i = 0; i + 4 <= extra.length; i += 4 + ((extra[i + 2] & 0xFF) | (extra[i + 3] & 0xFF) << 8)) {
+      if (((extra[i] & 0xFF) | (extra[i + 1] & 0xFF) << 8) == JAR_MAGIC) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static long checkSize(long size) throws ZipException {
+    if (size >= 0xFFFFFFFFL) {
+      throw new ZipException("too large for a jar without ZIP64");
+    }
+    return size;
+  }
+
+  // Local time, the same conversion ZipOutputStream makes.
+  private static long toDosTime(long time) {
+    Calendar calendar = Calendar.getInstance();
+    calendar.setTimeInMillis(time);
+    int year = calendar.get(Calendar.YEAR);
+    if (year < 1980) {
+      return DOS_EPOCH;
+    }
+    return (year - 1980) << 25 | (calendar.get(Calendar.MONTH) + 1) << 21 | calendar.get(Calendar.DAY_OF_MONTH) << 16
+      | calendar.get(Calendar.HOUR_OF_DAY) << 11 | calendar.get(Calendar.MINUTE) << 5 | calendar.get(Calendar.SECOND) >> 1;
+  }
+
+  private static void writeShort(ByteArrayOutputStream out, int value) {
+    out.write(value);
+    out.write(value >>> 8);
+  }
+
+  private static void writeInt(ByteArrayOutputStream out, long value) {
+    writeShort(out, (int)value);
+    writeShort(out, (int)(value >>> 16));
+  }
+
+  @SuppressWarnings("serial")
+  private class DeflateTask extends RecursiveAction
+  {
+    private final ZipEntry entry;
+    private final boolean stored;
+    private final long size;
+    private byte[] data;
+    private long crc;
+
+    DeflateTask(ZipEntry entry, byte[] data) {
+      this.entry = entry;
+      this.data = data;
+      this.stored = entry.getMethod() == ZipEntry.STORED;
+      this.size = data.length;
+    }
+
+    protected void compute() {
+      CRC32 crc = new CRC32();
+      crc.update(this.data, 0, this.data.length);
+      this.crc = crc.getValue();
+      if (this.stored) {
+        return;
+      }
+
+      Deflater deflater = takeDeflater();
+      try {
+        deflater.reset();
+        deflater.setLevel(ParallelJarOutputStream.this.level);
+        deflater.setInput(this.data);
+        deflater.finish();
+        byte[] deflated = new byte[this.data.length / 2 + 64];
+        int length = 0;
+        while (true) {
+          length += deflater.deflate(deflated, length, deflated.length - length);
+          if (deflater.finished()) {
+            break;
+          }
+          deflated = Arrays.copyOf(deflated, deflated.length * 2);
+        }
+        this.data = Arrays.copyOf(deflated, length);
+      } finally {
+        returnDeflater(deflater);
+      }
+    }
+  }
+}
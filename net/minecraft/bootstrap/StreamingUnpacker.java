@@ -0,0 +1,135 @@
+package net.minecraft.bootstrap;
+
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+
+public class StreamingUnpacker
+{
+  private static final int STAGE_BUFFER_SIZE = 1048576;
+  private final Bootstrap bootstrap;
+  private final File targetJar;
+  private PipedOutputStream packedOutput;
+  private Thread decodeThread;
+  private Thread unpackThread;
+  private volatile byte[] decodedDigest;
+  private volatile boolean unpacked;
+  private volatile Throwable error;
+
+  public StreamingUnpacker(Bootstrap bootstrap, File targetJar)
+  {
+    this.bootstrap = bootstrap;
+    this.targetJar = targetJar;
+  }
+
+  public boolean isStarted() {
+    return this.packedOutput != null;
+  }
+
+  public OutputStream start() throws IOException {
+    this.unpacked = false;
+    this.decodedDigest = null;
+    this.error = null;
+
+    final PipedInputStream packedInput = new PipedInputStream(STAGE_BUFFER_SIZE);
+    this.packedOutput = new PipedOutputStream(packedInput);
+    final PipedInputStream unpackedInput = new PipedInputStream(STAGE_BUFFER_SIZE);
+    final PipedOutputStream unpackedOutput = new PipedOutputStream(unpackedInput);
+
+    this.unpackThread = new Thread(new Runnable() {
+      public void run() {
+        try {
+          // Pack200 closes its input and may stop short of the end, so the rest is drained here to let the decoder check it.
+          InputStream packStream = new FilterInputStream(unpackedInput) {
+            public void close() {
+            }
+          };
+          StreamingUnpacker.this.bootstrap.unpackStream(packStream, StreamingUnpacker.this.targetJar);
+          byte[] buffer = new byte[65536];
+          while (unpackedInput.read(buffer) != -1) {
+          }
+          StreamingUnpacker.this.unpacked = true;
+        } catch (Throwable t) {
+          fail(t);
+        } finally {
+          Bootstrap.closeSilently(unpackedInput);
+        }
+      }
+    });
+    this.unpackThread.setName("Launcher unpacker");
+    this.unpackThread.setDaemon(true);
+
+    this.decodeThread = new Thread(new Runnable() {
+      public void run() {
+        InputStream inputHandle = null;
+        try {
+          inputHandle = PackCodecs.open(packedInput, StreamingUnpacker.this.bootstrap);
+          // Hashed on the way to Pack200, as the manifest to check it against only arrives with the end of the download.
+          MessageDigest digest = MessageDigest.getInstance("SHA-256");
+          Bootstrap.transfer(inputHandle, new DigestOutputStream(unpackedOutput, digest));
+          StreamingUnpacker.this.decodedDigest = digest.digest();
+        }
+        catch (Throwable t) {
+          // Recorded before the pipe is closed, since Pack200 then fails on the early end of its input.
+          fail(t);
+        } finally {
+          Bootstrap.closeSilently(inputHandle);
+          Bootstrap.closeSilently(packedInput);
+          Bootstrap.closeSilently(unpackedOutput);
+        }
+      }
+    });
+    this.decodeThread.setName("Launcher decoder");
+    this.decodeThread.setDaemon(true);
+
+    this.unpackThread.start();
+    this.decodeThread.start();
+    return this.packedOutput;
+  }
+
+  // The first failure is the cause: a decoder error ends Pack200's input, and a Pack200 error closes the pipe the decoder writes to.
+  private synchronized void fail(Throwable t) {
+    if (this.error == null) {
+      this.error = t;
+    }
+  }
+
+  // unpackedDigest is the SHA-256 from the pack's manifest, or null when the download came without one.
+  public boolean finish(boolean verified, byte[] unpackedDigest) {
+    if (this.packedOutput == null) {
+      return false;
+    }
+
+    Bootstrap.closeSilently(this.packedOutput);
+    this.packedOutput = null;
+    try {
+      this.decodeThread.join();
+      this.unpackThread.join();
+    } catch (InterruptedException e) {
+      fail(e);
+    }
+
+    boolean success = (verified) && (this.unpacked) && (this.error == null);
+    if ((success) && (unpackedDigest != null)) {
+      if (MessageDigest.isEqual(unpackedDigest, this.decodedDigest)) {
+        this.bootstrap.println("The decoded pack matches its manifest");
+      } else {
+        this.bootstrap.println("The decoded pack does not match its manifest");
+        success = false;
+      }
+    }
+    if (!success) {
+      if (this.error != null) {
+        this.bootstrap.println("Unpacking while downloading failed: " + this.error);
+      }
+      this.targetJar.delete();
+    }
+    return success;
+  }
+}